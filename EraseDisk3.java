@@ -145,6 +145,8 @@
 import java.awt.*;                // older Java GUI support
 import java.awt.event.*;          // older Java GUI event support
 import java.io.*;                 // standard I/O
+import java.nio.*;                // byte buffers for channel I/O
+import java.nio.channels.*;       // file channels, positional I/O
 import java.text.*;               // number formatting
 import java.util.regex.*;         // regular expressions
 import javax.swing.*;             // newer Java GUI support
@@ -179,8 +181,10 @@ public class EraseDisk3
   from largest to smallest.  The first or preferred size should be bigger than
   the block size or "allocation unit" of all disks on your system.  The second
   size will be used after the first size generates a "disk full" error, as will
-  the third and later sizes.  The last size should be equal to the smallest
-  block size expected, such as 512 bytes for a floppy disk drive.
+  the third and later sizes.  After enough data is written with a smaller size,
+  the bigger size is tried again (see startEraser).  The last size should be
+  equal to the smallest block size expected, such as 512 bytes for a floppy
+  disk drive.
 
   The intention is to write with larger and more efficient buffers for most of
   the file space, switching to smaller buffers for completion.  In the future,
@@ -231,6 +235,62 @@ public class EraseDisk3
   static final long ERROR_LIMIT = 5; // maximum number of recent error bytes
   static final long ERROR_RESET = 123456789; // forgive one error in ... bytes
 
+  /* Wrong bytes are collected into ranges (see EraseDisk3Ranges) and reported
+  once per file, instead of one line per byte.  Pseudo-random data will match
+  by chance about once in 256 bytes for a block that has gone bad, so a range
+  continues over a few correct bytes.  The "-e" option keeps verifying past
+  ERROR_LIMIT, to find the full extent of bad areas. */
+
+  static final int RANGE_GAP = 64; // correct bytes allowed inside one range
+  static final int RANGE_SAVED = 20; // ranges reported in detail per file
+
+  /* Read verify results are drawn as a map of good and bad regions (see
+  EraseDisk3Map) beside the bar graph.  The "-m" option also saves the good and
+  bad ranges of each file as comma-separated values (CSV), in the current
+  working directory, not the folder being erased (which is full). */
+
+  static final String MAP_FILE_NAME = "ERASEMAP.CSV"; // name for "-m" option
+
+  /* Each phase (writing or read verify) also has a throughput profile: the
+  data rate against the byte offset, in a fixed number of zones (see
+  EraseDisk3Zones), drawn below the bar graph.  The "-z" option saves the
+  profiles for all phases in a CSV file, also in the current working
+  directory. */
+
+  static final String ZONE_FILE_NAME = "ERASEZON.CSV"; // name for "-z" option
+
+  /* The "-k" option keeps the temporary files from the last pass, with a
+  manifest that describes their data (pattern, seed, sizes).  A later session
+  with the "-c" option reads verify the same files from the manifest, without
+  writing them again: after a power cycle, for example, so that nothing comes
+  from the system cache, or weeks later to test how well flash memory keeps
+  its data.  The manifest goes in the same folder as the files.  If the disk is
+  too full for the manifest, then the last file is made shorter. */
+
+  static final String MANIFEST_FILE_NAME = "ERASEMAN.TXT"; // for "-k" option
+  static final long MANIFEST_RESERVE = 0x10000; // bytes freed when disk full
+
+  /* Counterfeit disks (often USB flash drives) claim more capacity than they
+  have.  Past the real capacity, data is lost, or "wraps around" and replaces
+  earlier data.  Writing and verifying all free space finds this, but takes
+  hours.  The "-a" option is a quick probe: create temporary files that fill
+  the free space without writing them, then write small blocks tagged with
+  their position, spread evenly over all files, and read the blocks back in a
+  shuffled order.  Some file systems fill new files with zeros, and the probe
+  is no faster there.  As with any read verify, blocks may come from the system
+  cache unless the user removes and reinserts the disk. */
+
+  static final int PROBE_BLOCKS = 4096; // tagged blocks spread over free space
+  static final long PROBE_MARGIN = 0x100000; // free bytes left for file system
+  static final int PROBE_SAVED = 20; // bad blocks reported in detail
+  static final int PROBE_SIZE = 0x1000; // bytes in each tagged block
+
+  /* Temporary files are deleted by a few background threads, which overlap
+  with writing the next pass, if any.  Deleting large files can take several
+  seconds each, and some systems do better with more than one at a time. */
+
+  static final int DELETE_THREADS = 4; // number of threads to delete files
+
   /* We place a limit on the number of temporary files created, to prevent this
   program from wasting space in directories.  File systems can be slow if there
   are too many files in one directory.  A thousand files is more than enough
@@ -357,52 +417,156 @@ public class EraseDisk3
   static final long PASS_SIZE_LOWER = BUFFER_SIZES[0];
   static final long PASS_SIZE_UPPER = 0x7FFC000000000000L;
 
+  /* Erasing free space on a busy computer can starve other programs of disk
+  time.  The "-l" option limits our data rate when writing.  The "-n" option
+  is for running in the background: we measure the time taken per megabyte
+  over short windows, and if it gets much slower than the best recent time,
+  then another program probably wants the disk, and we sleep for a fraction of
+  the time spent writing.  The fraction doubles while we stay slow, and halves
+  when we are fast again.  The best time "drifts" upwards slowly, so an early
+  time that was only fast because of the system cache is eventually forgotten.
+  This works best with forced writes ("-f" or "-t" options). */
+
+  static final double NICE_DRIFT = 1.005; // best time per window grows by this
+  static final double NICE_FACTOR = 2.0; // slower than best by this is "busy"
+  static final double NICE_MAXIMUM = 8.0; // maximum sleep as fraction of busy
+  static final double NICE_MINIMUM = 0.125; // minimum sleep fraction, or zero
+  static final long NICE_WINDOW = 250; // milliseconds of writing per sample
+  static final long RATE_SLACK = 1000; // milliseconds behind "-l" rate limit
+                                  // ... before we stop trying to catch up
+
+  /* Java 1.4 writes files synchronously: one request is outstanding at a time,
+  and the next request isn't started until the previous one is done.  Some
+  devices (solid-state drives especially) only reach their rated speed with
+  several requests outstanding.  When the queue depth is more than one, each
+  full-size buffer is written at a known position in the file by one of a small
+  group of worker threads.  The "-q" command-line option sets the depth. */
+
+  static final int QUEUE_DEPTH_DEFAULT = 1; // default value if no option given
+  static final int QUEUE_DEPTH_LOWER = 1; // minimum legal value as an option
+  static final int QUEUE_DEPTH_UPPER = 64; // maximum legal value as an option
+
+  /* Read verify is normally done for one temporary file at a time.  Devices
+  that can read in parallel may be faster with several files at once.  The
+  "-v" command-line option sets how many. */
+
+  static final int VERIFY_THREADS_DEFAULT = 1; // default if no option given
+  static final int VERIFY_THREADS_LOWER = 1; // minimum legal value as option
+  static final int VERIFY_THREADS_UPPER = 64; // maximum legal value as option
+
+  /* A full read verify takes as long as writing.  The "-p" option reads only a
+  random sample of blocks from each file, with positional reads.  The expected
+  data for any block comes from jumping the pseudo-random generator straight to
+  that block (see seekRandom), using the same linear congruential formula as
+  java.util.Random: seed = (seed * multiplier + addend) mod 2**48.  If a sample
+  has no errors, then by the "rule of three" we are 95% confident that fewer
+  than 3 in every (sample size) blocks are bad. */
+
+  static final long RANDOM_ADDEND = 0xBL; // same as java.util.Random
+  static final long RANDOM_MASK = (1L << 48) - 1; // generator has 48 bits
+  static final long RANDOM_MULTIPLIER = 0x5DEECE66DL; // same as java.util.Random
+  static final long SAMPLE_RULE = 3; // rule of three, for 95% confidence
+
   /* class variables */
 
+  static EraseDisk3Pool bufferPool; // data buffers shared by all passes
   static JButton cancelButton, erasePanelBack, erasePanelNext, exitButton,
     folderButton, optionPanelBack, optionPanelNext, pauseButton, saveButton,
     startButton, summaryPanelBack, wherePanelNext; // buttons
   static boolean cancelFlag;      // our signal from user to stop processing
+  static boolean checkFlag;       // true if we only verify files kept earlier
+  static boolean cipherFlag;      // true if pseudo-random data is AES/CTR
   static long clockJobSaved, clockPassSaved;
                                   // elapsed time before pause or prompt
   static long clockJobStart, clockPassStart;
-                                  // system millis after pause or prompt
+                                  // clockMillis() after pause or prompt
+  static java.lang.reflect.Method clockNanoMethod;
+                                  // System.nanoTime() if Java 5.0 or later
+  static Object cpuTimeBean;      // ThreadMXBean if Java 5.0 or later
+  static java.lang.reflect.Method cpuTimeMethod;
+                                  // getCurrentThreadCpuTime() for <cpuTimeBean>
+  static EraseDisk3Cipher dataCipher; // AES/CTR key stream for pseudo-random
+                                  // ... data this pass, or null if not used
+  static EraseDisk3Generator dataGenerator; // worker thread for new random
+                                  // ... data, or null if FAST_RANDOM
   static boolean debugFlag;       // true if we show debug information
   static boolean deleteFlag;      // true if we delete our temporary files
+  static boolean directReadFlag;  // true if verify reads into direct buffers
+  static boolean errorScanFlag;   // true if verify continues past errors
+  static long fileCeiling;        // maximum file size found, or zero
+  static EraseDisk3Delete fileDeleter; // background deletion of temporary
+                                  // ... files from previous pass, or null
   static JTextField erasePanelFileAction, erasePanelFileDone,
     erasePanelPassDone, erasePanelPassTime, erasePanelTitle,
     erasePanelTotalTime;          // information fields on "Erase" panel
   static JProgressBar erasePanelFileBar, erasePanelPassBar;
   static EraseDisk3Grid erasePanelGrid; // graphical history of data rates
   static JLabel erasePanelGridScale; // current maximum grid scale value
+  static EraseDisk3Map erasePanelMap; // good and bad regions from verify
+  static EraseDisk3Zones erasePanelZones; // data rate against byte offset
+  static ThreadGroup eraseGroup;  // "eraseThread" and all of its workers
   static int erasePanelIndex, optionPanelIndex, summaryPanelIndex,
     wherePanelIndex;              // used by Back/Next to navigate tabs
   static JFileChooser fileChooser; // asks for input and output file names
+  static EraseDisk3Writer flushWriter; // worker thread for throttled writes
+  static boolean forceFlag;       // true if we force each file onto the disk
+  static long forceInterval;      // bytes between forced writes, or zero
   static NumberFormat formatComma; // formats with commas (digit grouping)
   static NumberFormat formatPointOne; // formats with one decimal digit
+  static boolean inPlaceFlag;     // true if later passes rewrite in place
+  static int keepCount;           // files kept from previous pass, or zero
+  static boolean keepFlag;        // true if we keep files from last pass
+  static java.util.Properties keepManifest; // describes files kept from last
+                                  // ... pass, or null
   static JFrame mainFrame;        // this application's window if GUI
+  static boolean mapFileFlag;     // true if we save verify map as CSV file
   static boolean mswinFlag;       // true if running on Microsoft Windows
+  static boolean niceFlag;        // true if we back off when disk is busy
   static JCheckBox optionCustomWrite, optionOneWrite, optionRandomPrompt,
     optionRandomRead, optionRandomWrite, optionZeroWrite; // checkboxes
   static JTextField optionFileCount, optionFileSize, optionTotalSize;
   static JTextArea outputText;    // generated report while opening files
+  static int placeCount;          // number of files to rewrite in place
+  static long[] placeSizes;       // size of each file to rewrite in place
   static boolean pauseFlag;       // true if we should delay processing
-  static Integer pauseWaiter;     // wait on this object for "Pause" button
+  static EraseDisk3Latch pauseLatch; // closed while "Pause" is active
+  static boolean probeFlag;       // true if we probe for counterfeit capacity
+  static int queueDepth;          // number of outstanding writes per file
+  static long rateLimit;          // maximum bytes per second, or zero
   static String runFileAction, runPassAction;
                                   // tags saying if reading or writing
   static long runFileBytesDone, runFileEstMax, runPassBytesDone, runPassEstMax,
     runPassPrevBytes, runTotalBytesDone, runTotalErrors;
                                   // running status counters during erase
+  static long runFileForceMillis, runFileForceNext, runFileThrottleDone,
+    runPassForceMillis;           // time spent forcing data onto the disk
+  static long runPassCompareNanos, runPassCpuNanos, runPassCpuStart,
+    runPassDeleteNanos, runPassGenerateNanos, runPassTransferNanos;
+                                  // where time goes in each pass (see
+                                  // ... putPassTimes)
   static String runFileName;      // current read/write file name, if any
+  static double runNiceBase, runNiceFactor; // best time per byte, and sleep
+                                  // ... as fraction of time spent writing
+  static long runNiceBusy, runNiceBytes, runNiceLast, runPaceBytes,
+    runPaceStart;                 // pacing writes for "-l" and "-n" options
   static double runPassPrevRate;  // previous bytes per second
+  static double samplePercent;    // percent of blocks to read verify, or zero
+                                  // ... to read verify all blocks
+  static long shrinkBytes;        // bytes per step when shrinking, or zero
+  static long shrinkMillis;       // delay in milliseconds after each step
   static javax.swing.Timer statusTimer; // timer for updating status message
   static JTabbedPane tabbedPane;  // tabbed pane with multiple panels
+  static long throttleBytes;      // maximum unforced bytes per file, or zero
   static int userFileCount;       // user's maximum number of files
   static long userFileSize;       // user's maximum size of each file
   static File userFolder;         // directory or folder for temporary files
   static String userFolderPath;   // canonical path name for user's folder
   static long userPassSize;       // user's maximum all files, one pass
+  static int verifyThreads;       // number of files to read verify at once
   static JTextField whereFolderText; // shows name of user's selected folder
+  static EraseDisk3Writer[] writerList; // worker threads for queued writes
+  static boolean zoneFileFlag;    // true if we save throughput profile file
+  static StringBuffer zoneText;   // CSV lines for all phases in this job
 
 /*
   main() method
@@ -412,7 +576,7 @@ public class EraseDisk3
 */
   public static void main(String[] args)
   {
-    ActionListener action;        // our shared action listener
+    EraseDisk3User action;        // our shared action and mouse listener
     boolean borderFlag;           // true if main window has borders, controls
     Font commonFont;              // font for buttons, labels, status, etc
     String commonFontName;        // preferred font name for buttons, etc
@@ -429,22 +593,59 @@ public class EraseDisk3
     /* Initialize variables used by both console and GUI applications. */
 
     borderFlag = true;            // by default, window has borders, controls
+    bufferPool = new EraseDisk3Pool(); // no free buffers yet
     cancelFlag = false;           // don't cancel unless user complains
+    try { clockNanoMethod = System.class.getMethod("nanoTime", new Class[0]); }
+    catch (NoSuchMethodException nsme) { clockNanoMethod = null; }
+                                  // not found before Java 5.0
+    try                           // also not found before Java 5.0
+    {
+      cpuTimeBean = Class.forName("java.lang.management.ManagementFactory")
+        .getMethod("getThreadMXBean", new Class[0]).invoke(null,
+        new Object[0]);           // one bean for all threads
+      cpuTimeMethod = Class.forName("java.lang.management.ThreadMXBean")
+        .getMethod("getCurrentThreadCpuTime", new Class[0]);
+    }
+    catch (Exception e) { cpuTimeBean = null; cpuTimeMethod = null; }
+    try                           // not found before Java 9.0
+    {
+      java.util.Arrays.class.getMethod("mismatch", new Class[] { byte[].class,
+        byte[].class });          // same vector code as ByteBuffer.equals()
+      directReadFlag = true;      // direct buffers compare as fast as arrays
+    }
+    catch (NoSuchMethodException nsme) { directReadFlag = false; }
+    checkFlag = false;            // by default, write files before verify
+    cipherFlag = false;           // by default, use java.util.Random
     commonFontName = SYSTEM_FONT; // default to normal font on local system
     commonFontSize = 18;          // preferred font size of buttons, labels
     debugFlag = false;            // by default, don't show debug information
+    errorScanFlag = false;        // by default, stop after too many errors
+    forceFlag = false;            // by default, let system write when ready
+    forceInterval = 0;            // no periodic forced writes
     gridBarGap = gridBarWidth = -1; // no pixel sizes for columns in bar graph
+    inPlaceFlag = false;          // by default, create files for each pass
+    keepFlag = false;             // by default, delete files from last pass
     mainFrame = null;             // during setup, there is no GUI window
+    mapFileFlag = false;          // by default, don't save verify map
     maxDataRateFlag = false;      // by default, don't show maximum data rate
     maximizeFlag = false;         // by default, don't maximize our main window
     mswinFlag = System.getProperty("os.name").startsWith("Windows");
+    niceFlag = false;             // by default, write as fast as possible
     pauseFlag = false;            // don't pause until user clicks button
+    probeFlag = false;            // by default, erase instead of probing
+    queueDepth = QUEUE_DEPTH_DEFAULT; // by default, one write at a time
+    rateLimit = 0;                // by default, no limit on data rate
+    samplePercent = 0;            // by default, read verify all blocks
+    shrinkBytes = shrinkMillis = 0; // by default, delete files all at once
+    throttleBytes = 0;            // by default, no limit on unforced data
     userFolder = null;            // no folder yet for temporary files
     userFolderPath = null;        // no path name, because no folder yet
+    verifyThreads = VERIFY_THREADS_DEFAULT; // by default, one file at a time
     windowHeight = DEFAULT_HEIGHT; // default window position and size
     windowLeft = DEFAULT_LEFT;
     windowTop = DEFAULT_TOP;
     windowWidth = DEFAULT_WIDTH;
+    zoneFileFlag = false;         // by default, don't save throughput profile
 
     /* Initialize number formatting styles. */
 
@@ -475,6 +676,17 @@ public class EraseDisk3
         System.exit(EXIT_UNKNOWN); // exit application after printing help
       }
 
+      else if (word.equals("-a") || (mswinFlag && word.equals("/a"))
+        || word.equals("-a1") || (mswinFlag && word.equals("/a1")))
+      {
+        /* Don't erase.  Quickly probe for a counterfeit disk that is smaller
+        than it claims to be.  See probeCapacity(). */
+
+        probeFlag = true;         // yes, probe capacity instead
+      }
+      else if (word.equals("-a0") || (mswinFlag && word.equals("/a0")))
+        probeFlag = false;        // erase normally
+
       else if (word.equals("-b") || (mswinFlag && word.equals("/b"))
         || word.equals("-b1") || (mswinFlag && word.equals("/b1")))
       {
@@ -483,6 +695,17 @@ public class EraseDisk3
       else if (word.equals("-b0") || (mswinFlag && word.equals("/b0")))
         borderFlag = false;       // no borders, controls on main window
 
+      else if (word.equals("-c") || (mswinFlag && word.equals("/c"))
+        || word.equals("-c1") || (mswinFlag && word.equals("/c1")))
+      {
+        /* Don't write anything.  Read verify temporary files kept by an earlier
+        session with the "-k" option, as described by their manifest. */
+
+        checkFlag = true;         // yes, only verify kept files
+      }
+      else if (word.equals("-c0") || (mswinFlag && word.equals("/c0")))
+        checkFlag = false;        // write files normally
+
       else if (word.equals("-d") || (mswinFlag && word.equals("/d"))
         || word.equals("-d1") || (mswinFlag && word.equals("/d1")))
       {
@@ -494,6 +717,54 @@ public class EraseDisk3
       else if (word.equals("-d0") || (mswinFlag && word.equals("/d0")))
         debugFlag = false;        // don't show debug information
 
+      else if (word.equals("-e") || (mswinFlag && word.equals("/e"))
+        || word.equals("-e1") || (mswinFlag && word.equals("/e1")))
+      {
+        /* Keep verifying each file after too many errors (ERROR_LIMIT), so that
+        we can report all bad ranges.  This is slower for a failing disk. */
+
+        errorScanFlag = true;     // yes, verify all bytes in each file
+      }
+      else if (word.equals("-e0") || (mswinFlag && word.equals("/e0")))
+        errorScanFlag = false;    // stop after too many errors
+
+      else if (word.equals("-f") || (mswinFlag && word.equals("/f"))
+        || word.equals("-f1") || (mswinFlag && word.equals("/f1")))
+      {
+        /* Force each temporary file onto the disk before it is closed, so that
+        the data isn't sitting in a system cache when we report speeds. */
+
+        forceFlag = true;         // yes, force at end of each file
+        forceInterval = 0;        // no periodic forced writes
+      }
+      else if (word.equals("-f0") || (mswinFlag && word.equals("/f0")))
+      {
+        forceFlag = false;        // let system write data when ready
+        forceInterval = 0;
+      }
+      else if (word.startsWith("-f") || (mswinFlag && word.startsWith("/f")))
+      {
+        /* This option is followed by a number of megabytes in parentheses.
+        Data is forced onto the disk each time that much has been written to a
+        file, and again at the end of the file. */
+
+        Pattern pattern = Pattern.compile("\\s*\\(\\s*(\\d{1,7})\\s*\\)\\s*");
+        Matcher matcher = pattern.matcher(word.substring(2)); // parse option
+        if (matcher.matches())    // if option has proper syntax
+        {
+          forceFlag = true;       // yes, force at end of each file
+          forceInterval = ((long) Integer.parseInt(matcher.group(1))) << 20;
+                                  // convert megabytes to bytes
+        }
+        else                      // bad syntax or too many digits
+        {
+          System.err.println("Invalid megabytes between forced writes: "
+            + args[i]);           // syntax error only, no semantic checking
+          showHelp();             // show help summary
+          System.exit(EXIT_FAILURE); // exit application after printing help
+        }
+      }
+
       else if (word.startsWith("-g") || (mswinFlag && word.startsWith("/g")))
       {
         /* This option is followed by a list of two numbers for the pixel width
@@ -518,6 +789,121 @@ public class EraseDisk3
         }
       }
 
+      else if (word.equals("-i") || (mswinFlag && word.equals("/i"))
+        || word.equals("-i1") || (mswinFlag && word.equals("/i1")))
+      {
+        /* Temporary files are created and filled by the first pass, then
+        rewritten in place by later passes, and only deleted at the end.  This
+        saves a lot of time on large disks, but assumes that the file system
+        overwrites existing data where it is, which isn't true for some (such
+        as copy-on-write, compressed, or flash file systems). */
+
+        inPlaceFlag = true;       // yes, later passes rewrite in place
+      }
+      else if (word.equals("-i0") || (mswinFlag && word.equals("/i0")))
+        inPlaceFlag = false;      // each pass creates and deletes files
+
+      else if (word.equals("-k") || (mswinFlag && word.equals("/k"))
+        || word.equals("-k1") || (mswinFlag && word.equals("/k1")))
+      {
+        /* Keep the temporary files from the last pass, and save a manifest so
+        that a later session can verify them with the "-c" option. */
+
+        keepFlag = true;          // yes, keep files from last pass
+      }
+      else if (word.equals("-k0") || (mswinFlag && word.equals("/k0")))
+        keepFlag = false;         // delete files from last pass
+
+      else if (word.equals("-l0") || (mswinFlag && word.equals("/l0")))
+        rateLimit = 0;            // no limit on data rate
+      else if (word.startsWith("-l") || (mswinFlag && word.startsWith("/l")))
+      {
+        /* This option is followed by a number of megabytes per second in
+        parentheses.  We sleep while writing, if necessary, so that other
+        programs can share the disk. */
+
+        Pattern pattern = Pattern.compile("\\s*\\(\\s*(\\d{1,7})\\s*\\)\\s*");
+        Matcher matcher = pattern.matcher(word.substring(2)); // parse option
+        if (matcher.matches())    // if option has proper syntax
+        {
+          rateLimit = ((long) Integer.parseInt(matcher.group(1))) << 20;
+                                  // convert megabytes to bytes
+        }
+        else                      // bad syntax or too many digits
+        {
+          System.err.println("Invalid megabytes per second: " + args[i]);
+          showHelp();             // show help summary
+          System.exit(EXIT_FAILURE); // exit application after printing help
+        }
+      }
+
+      else if (word.equals("-m") || (mswinFlag && word.equals("/m"))
+        || word.equals("-m1") || (mswinFlag && word.equals("/m1")))
+      {
+        /* Save good and bad ranges found by read verify in a CSV file. */
+
+        mapFileFlag = true;       // yes, save verify map
+      }
+      else if (word.equals("-m0") || (mswinFlag && word.equals("/m0")))
+        mapFileFlag = false;      // don't save verify map
+
+      else if (word.equals("-n") || (mswinFlag && word.equals("/n"))
+        || word.equals("-n1") || (mswinFlag && word.equals("/n1")))
+      {
+        /* Run in the background, and back off when other programs are busy
+        with the same disk.  See paceWrite(). */
+
+        niceFlag = true;          // yes, back off when disk is busy
+      }
+      else if (word.equals("-n0") || (mswinFlag && word.equals("/n0")))
+        niceFlag = false;         // write as fast as possible
+
+      else if (word.equals("-p0") || (mswinFlag && word.equals("/p0")))
+        samplePercent = 0;        // read verify all blocks
+      else if (word.startsWith("-p") || (mswinFlag && word.startsWith("/p")))
+      {
+        /* This option is followed by a percent of blocks in parentheses, which
+        may have a decimal fraction.  Read verify checks a random sample of
+        blocks from each file, instead of every block. */
+
+        Pattern pattern = Pattern.compile(
+          "\\s*\\(\\s*(\\d{1,2}(?:\\.\\d{1,3})?)\\s*\\)\\s*");
+        Matcher matcher = pattern.matcher(word.substring(2)); // parse option
+        if (matcher.matches())    // if option has proper syntax
+        {
+          samplePercent = Double.parseDouble(matcher.group(1));
+                                  // zero means all blocks, same as "-p0"
+        }
+        else                      // bad syntax or too many digits
+        {
+          System.err.println("Invalid percent of blocks to sample: " + args[i]);
+          showHelp();             // show help summary
+          System.exit(EXIT_FAILURE); // exit application after printing help
+        }
+      }
+
+      else if (word.startsWith("-q") || (mswinFlag && word.startsWith("/q")))
+      {
+        /* This option is followed by the number of write requests that may be
+        outstanding at the same time for one temporary file. */
+
+        try                       // try to parse remainder as an integer
+        {
+          queueDepth = Integer.parseInt(word.substring(2));
+        }
+        catch (NumberFormatException nfe) // if not a number or bad syntax
+        {
+          queueDepth = -1;        // set result to an illegal value
+        }
+        if ((queueDepth < QUEUE_DEPTH_LOWER) || (queueDepth > QUEUE_DEPTH_UPPER))
+        {
+          System.err.println("Write queue depth must be from "
+            + QUEUE_DEPTH_LOWER + " to " + QUEUE_DEPTH_UPPER + ": " + args[i]);
+          showHelp();             // show help summary
+          System.exit(EXIT_FAILURE); // exit application after printing help
+        }
+      }
+
       else if (word.equals("-r") || (mswinFlag && word.equals("/r"))
         || word.equals("-r1") || (mswinFlag && word.equals("/r1")))
       {
@@ -529,6 +915,62 @@ public class EraseDisk3
       else if (word.equals("-r0") || (mswinFlag && word.equals("/r0")))
         maxDataRateFlag = false;  // don't show maximum observed data rate
 
+      else if (word.equals("-s0") || (mswinFlag && word.equals("/s0")))
+        shrinkBytes = shrinkMillis = 0; // delete files all at once
+      else if (word.startsWith("-s") || (mswinFlag && word.startsWith("/s")))
+      {
+        /* This option is followed by a number of megabytes in parentheses,
+        and optionally a delay in milliseconds.  Deleting a huge file can stall
+        all disk access for several seconds on some file systems, while space
+        is freed.  Instead, each file is truncated by that many megabytes at a
+        time, with the delay after each step, and then deleted. */
+
+        Pattern pattern = Pattern.compile(
+          "\\s*\\(\\s*(\\d{1,7})\\s*(?:,\\s*(\\d{1,5})\\s*)?\\)\\s*");
+        Matcher matcher = pattern.matcher(word.substring(2)); // parse option
+        if (matcher.matches())    // if option has proper syntax
+        {
+          shrinkBytes = ((long) Integer.parseInt(matcher.group(1))) << 20;
+                                  // convert megabytes to bytes
+          shrinkMillis = (matcher.group(2) == null) ? 0
+            : Integer.parseInt(matcher.group(2));
+        }
+        else                      // bad syntax or too many digits
+        {
+          System.err.println("Invalid megabytes or delay for shrinking files: "
+            + args[i]);           // syntax error only, no semantic checking
+          showHelp();             // show help summary
+          System.exit(EXIT_FAILURE); // exit application after printing help
+        }
+      }
+
+      else if (word.equals("-t0") || (mswinFlag && word.equals("/t0")))
+        throttleBytes = 0;        // no limit on unforced data per file
+      else if (word.startsWith("-t") || (mswinFlag && word.startsWith("/t")))
+      {
+        /* This option is followed by a number of megabytes in parentheses.
+        Systems with lots of memory (RAM) may cache gigabytes of written data,
+        then stall everything while the cache is written to disk.  We limit how
+        much unforced data each temporary file may have.  Half of the limit is
+        forced onto the disk by a background thread while we keep writing the
+        other half, so the data rate is smooth and close to the device speed.
+        Java has no way to remove written data from the cache. */
+
+        Pattern pattern = Pattern.compile("\\s*\\(\\s*(\\d{1,7})\\s*\\)\\s*");
+        Matcher matcher = pattern.matcher(word.substring(2)); // parse option
+        if (matcher.matches())    // if option has proper syntax
+        {
+          throttleBytes = ((long) Integer.parseInt(matcher.group(1))) << 20;
+                                  // convert megabytes to bytes
+        }
+        else                      // bad syntax or too many digits
+        {
+          System.err.println("Invalid megabytes for unforced data: " + args[i]);
+          showHelp();             // show help summary
+          System.exit(EXIT_FAILURE); // exit application after printing help
+        }
+      }
+
       else if (word.startsWith("-u") || (mswinFlag && word.startsWith("/u")))
       {
         /* This option is followed by a font point size that will be used for
@@ -555,6 +997,30 @@ public class EraseDisk3
           * 0.56);
       }
 
+      else if (word.startsWith("-v") || (mswinFlag && word.startsWith("/v")))
+      {
+        /* This option is followed by the number of temporary files that may be
+        read verified at the same time. */
+
+        try                       // try to parse remainder as an integer
+        {
+          verifyThreads = Integer.parseInt(word.substring(2));
+        }
+        catch (NumberFormatException nfe) // if not a number or bad syntax
+        {
+          verifyThreads = -1;     // set result to an illegal value
+        }
+        if ((verifyThreads < VERIFY_THREADS_LOWER)
+          || (verifyThreads > VERIFY_THREADS_UPPER))
+        {
+          System.err.println("Number of files to verify at once must be from "
+            + VERIFY_THREADS_LOWER + " to " + VERIFY_THREADS_UPPER + ": "
+            + args[i]);
+          showHelp();             // show help summary
+          System.exit(EXIT_FAILURE); // exit application after printing help
+        }
+      }
+
       else if (word.startsWith("-w") || (mswinFlag && word.startsWith("/w")))
       {
         /* This option is followed by a list of four numbers for the initial
@@ -587,6 +1053,27 @@ public class EraseDisk3
       else if (word.equals("-x0") || (mswinFlag && word.equals("/x0")))
         maximizeFlag = false;     // regular window, don't maximize
 
+      else if (word.equals("-y") || (mswinFlag && word.equals("/y"))
+        || word.equals("-y1") || (mswinFlag && word.equals("/y1")))
+      {
+        /* Pseudo-random data is an AES key stream in counter mode, which is
+        faster than java.util.Random if the processor has AES instructions. */
+
+        cipherFlag = true;        // yes, use AES/CTR for pseudo-random data
+      }
+      else if (word.equals("-y0") || (mswinFlag && word.equals("/y0")))
+        cipherFlag = false;       // use java.util.Random
+
+      else if (word.equals("-z") || (mswinFlag && word.equals("/z"))
+        || word.equals("-z1") || (mswinFlag && word.equals("/z1")))
+      {
+        /* Save the throughput profile of each phase in a CSV file. */
+
+        zoneFileFlag = true;      // yes, save throughput profile
+      }
+      else if (word.equals("-z0") || (mswinFlag && word.equals("/z0")))
+        zoneFileFlag = false;     // don't save throughput profile
+
       else                        // parameter is not a recognized option
       {
         System.err.println("Option not recognized: " + args[i]);
@@ -601,7 +1088,7 @@ public class EraseDisk3
     commonFont = new Font(commonFontName, Font.PLAIN, commonFontSize);
     emptyBorder = BorderFactory.createEmptyBorder(); // for removing borders
     fileChooser = new JFileChooser(); // create our shared file chooser
-    pauseWaiter = new Integer(0); // wait on this object for "Pause" button
+    pauseLatch = new EraseDisk3Latch(); // open until "Pause" button clicked
     statusTimer = new javax.swing.Timer(TIMER_DELAY, action);
                                   // update status message on clock ticks only
 
@@ -983,6 +1470,7 @@ public class EraseDisk3
 
     erasePanelGrid = new EraseDisk3Grid(gridBarWidth, gridBarGap);
                                   // graphical history of data rates
+    erasePanelGrid.addMouseListener(action); // click for recent or whole job
     JPanel panel550 = new JPanel(); // maximum observed data rate
     panel550.setLayout(new BoxLayout(panel550, BoxLayout.X_AXIS));
     erasePanelGridScale = new JLabel(EMPTY_STATUS);
@@ -994,8 +1482,24 @@ public class EraseDisk3
 //  panel550.add(Box.createHorizontalGlue()); // expand space on right
     if (maxDataRateFlag) panel520.add(panel550);
 
+    erasePanelMap = new EraseDisk3Map(); // good and bad regions from verify
+    erasePanelMap.setPreferredSize(new Dimension((commonFontSize * 8),
+      (commonFontSize * 8)));     // square, about as tall as grid
+    JPanel panel560 = new JPanel(new BorderLayout(0, 0));
+    panel560.add(Box.createHorizontalStrut(10), BorderLayout.WEST);
+    panel560.add(erasePanelMap, BorderLayout.CENTER);
+
     panel510.add(panel520, BorderLayout.NORTH);
     panel510.add(erasePanelGrid, BorderLayout.CENTER);
+    panel510.add(panel560, BorderLayout.EAST);
+
+    erasePanelZones = new EraseDisk3Zones(); // data rate against byte offset
+    erasePanelZones.setPreferredSize(new Dimension((commonFontSize * 8),
+      (commonFontSize * 4)));     // wide and short, below grid
+    JPanel panel570 = new JPanel(new BorderLayout(0, 0));
+    panel570.add(Box.createVerticalStrut(10), BorderLayout.NORTH);
+    panel570.add(erasePanelZones, BorderLayout.CENTER);
+    panel510.add(panel570, BorderLayout.SOUTH);
 
     JPanel panel590 = new JPanel(new BorderLayout(0, 0));
     panel590.add(Box.createVerticalStrut(15), BorderLayout.NORTH);
@@ -1092,6 +1596,25 @@ public class EraseDisk3
 
 // ------------------------------------------------------------------------- //
 
+/*
+  addVerifyBytes() method
+
+  Add bytes read during read verify to our running status counters.  This may
+  be called by more than one thread at a time (see EraseDisk3Verify), so it is
+  synchronized.  Only the oldest file in progress shows in the "Erase" panel.
+*/
+  static synchronized void addVerifyBytes(
+    String fileName,              // name of file that was read
+    long fileDone,                // total bytes done for that file
+    long moreBytes)               // additional bytes just read
+  {
+    if (fileName.equals(runFileName)) // is this the file we show?
+      runFileBytesDone = fileDone; // yes, bytes done for this file
+    runPassBytesDone += moreBytes; // bytes done all files, this pass
+    runTotalBytesDone += moreBytes; // bytes all passes, all data types
+  }
+
+
 /*
   adjustRandomOptions() method
 
@@ -1115,6 +1638,119 @@ public class EraseDisk3
   }
 
 
+/*
+  checkFiles() method
+
+  Read verify temporary files kept by an earlier session with the "-k" option,
+  as described by their manifest, without writing anything.  This is the only
+  "pass" for the "-c" option.  There is no prompt to remove and reinsert the
+  media: the user already had that chance between sessions.
+*/
+  static void checkFiles()
+  {
+    byte[] dataBuffer;            // data bytes for comparing files
+    String description;           // pass that wrote the kept files
+    String fileName;              // name of current file
+    int fillByte;                 // 0x00 to 0xFF data, ignored if random
+    long fileSize;                // size of current file from manifest
+    java.util.Properties manifest; // describes the kept files
+    int numFiles;                 // number of kept files
+    long randomBase;              // base for all random number sequences
+    boolean randomFlag;           // true if using pseudo-random sequence
+    long savedWriteBytes;         // total size of all kept files
+    int sizeLimit;                // first and assumed maximum buffer size
+
+    erasePanelTitle.setText("Verifying kept files...");
+    putOutput("");                // blank line
+    putOutput("Verifying temporary files kept by an earlier session...");
+
+    /* Load the manifest, and check that it was written by a version of this
+    program that creates the same data. */
+
+    manifest = new java.util.Properties();
+    try
+    {
+      FileInputStream input = new FileInputStream(new File(userFolder,
+        MANIFEST_FILE_NAME));
+      manifest.load(input);
+      input.close();
+    }
+    catch (IOException ioe)       // includes FileNotFoundException
+    {
+      putOutput(MANIFEST_FILE_NAME + " - " + ioe.getMessage());
+      runTotalErrors ++;          // one more error detected
+      return;
+    }
+    try                           // missing values are also format errors
+    {
+      description = manifest.getProperty("description", "");
+      fillByte = Integer.parseInt(manifest.getProperty("fillByte"));
+      numFiles = Integer.parseInt(manifest.getProperty("numFiles"));
+      randomBase = Long.parseLong(manifest.getProperty("randomBase"));
+      randomFlag = Boolean.valueOf(manifest.getProperty("randomFlag"))
+        .booleanValue();
+      sizeLimit = Integer.parseInt(manifest.getProperty("sizeLimit"));
+    }
+    catch (NumberFormatException nfe)
+    {
+      putOutput(MANIFEST_FILE_NAME + " - missing or invalid values");
+      runTotalErrors ++;          // one more error detected
+      return;
+    }
+    if ((sizeLimit != BUFFER_SIZES[0]) || (String.valueOf(FAST_RANDOM)
+      .equals(manifest.getProperty("fastRandom")) == false))
+    {
+      putOutput(MANIFEST_FILE_NAME
+        + " - written by a different version of this program");
+      runTotalErrors ++;          // one more error detected
+      return;
+    }
+    dataCipher = null;            // assume java.util.Random, or constant data
+    if (randomFlag && Boolean.valueOf(manifest.getProperty("cipherFlag"))
+      .booleanValue())            // written with the "-y" option?
+    {
+      try { dataCipher = new EraseDisk3Cipher(sizeLimit); }
+      catch (java.security.GeneralSecurityException gse)
+      {
+        putOutput(EraseDisk3Cipher.CIPHER_NAME + " - " + gse.getMessage());
+        runTotalErrors ++;        // one more error detected
+        return;
+      }
+    }
+    putOutput("Manifest has " + prettyPlural(numFiles, "temporary file")
+      + " from \"" + description + "\"");
+
+    /* Files are verified with the same totals as after writing, but a file
+    that changed size is reported here by name. */
+
+    keepCount = numFiles;         // delete or keep these files when done
+    runFileEstMax = savedWriteBytes = 0; // no sizes yet
+    for (int i = 1; i <= numFiles; i ++)
+    {
+      fileName = createFilename(i); // formatted name with number
+      try { fileSize = Long.parseLong(manifest.getProperty(fileName)); }
+      catch (NumberFormatException nfe) { fileSize = 0; }
+      if (new File(userFolder, fileName).length() != fileSize)
+      {
+        putOutput(fileName + " - size is " + formatComma.format(new File(
+          userFolder, fileName).length()) + " bytes but should be "
+          + formatComma.format(fileSize));
+        runTotalErrors ++;        // one more error detected
+      }
+      runFileEstMax = Math.max(runFileEstMax, fileSize); // largest file
+      savedWriteBytes += fileSize; // total of all files
+    }
+    runPassEstMax = savedWriteBytes; // we know the exact size
+
+    dataBuffer = createBuffer(randomFlag, fillByte, sizeLimit, randomBase);
+    verifyFiles(numFiles, randomFlag, fillByte, dataBuffer, sizeLimit,
+      randomBase, savedWriteBytes); // same data as was written
+    if (randomFlag)               // constant data stays cached in the pool
+      bufferPool.giveBytes(dataBuffer);
+
+  } // end of checkFiles() method
+
+
 /*
   cleanCountSize() method
 
@@ -1140,6 +1776,98 @@ public class EraseDisk3
   }
 
 
+/*
+  clockMillis() method
+
+  Return a clock time in milliseconds, for elapsed times and data rates only.
+  System.currentTimeMillis() jumps forwards or backwards when the system clock
+  is adjusted (by a time server, or by the user), which would make our times
+  and speeds wrong.  System.nanoTime() doesn't jump, but was added in Java 5.0,
+  so we call it by reflection when available.  The result has no particular
+  origin, and may even be negative; only differences are meaningful.
+*/
+  static long clockMillis()
+  {
+    return(clockNanos() / 1000000); // convert nanoseconds to milliseconds
+  }
+
+
+/*
+  clockNanos() method
+
+  Return a clock time in nanoseconds, for timing single reads and writes that
+  are much shorter than a millisecond.  See clockMillis().  With older Java,
+  the time only changes once per millisecond or so, and short times add up to
+  zero.
+*/
+  static long clockNanos()
+  {
+    if (clockNanoMethod != null)  // do we have a monotonic clock?
+    {
+      try { return(((Long) clockNanoMethod.invoke(null, new Object[0]))
+        .longValue()); }
+      catch (Exception e) { clockNanoMethod = null; } // shouldn't happen
+    }
+    return(System.currentTimeMillis() * 1000000); // older Java, or failed
+  }
+
+
+/*
+  createBuffer() method
+
+  Create and fill a buffer with data for writing and comparing files.  We don't
+  need perfect pseudo-random numbers, so we do something faster: create a
+  buffer twice as big, fill with good random data, and later randomly index
+  blocks starting somewhere in the first half.  The random data comes from a
+  known seed, so that a later session can create the same buffer for a read
+  verify (see the "-c" and "-k" options).  Buffers come from <bufferPool>, and
+  a constant buffer is cached there, already filled, for the next pass.
+*/
+  static byte[] createBuffer(
+    boolean randomFlag,           // true if using pseudo-random sequence
+    int fillByte,                 // 0x00 to 0xFF data, ignored if random
+    int sizeLimit,                // first and assumed maximum buffer size
+    long randomBase)              // base for all random number sequences
+  {
+    byte[] dataBuffer;            // new data buffer
+
+    if (randomFlag == false)      // constant value for data bytes?
+    {
+      dataBuffer = bufferPool.constantBytes(fillByte, sizeLimit);
+                                  // same value for entire buffer, cached
+    }
+    else if (FAST_RANDOM && (dataCipher == null)) // re-use random numbers?
+    {
+      dataBuffer = bufferPool.takeBytes(sizeLimit * 2); // twice as big
+      new java.util.Random(randomBase).nextBytes(dataBuffer);
+                                  // fill with random bytes to re-use
+    }
+    else                          // always generate random numbers (or AES)
+    {
+      dataBuffer = bufferPool.takeBytes(sizeLimit); // at maximum size
+    }
+    return(dataBuffer);
+
+  } // end of createBuffer() method
+
+
+/*
+  createProbeTag() method
+
+  Fill one block for the "-a" option: the base for this probe and the block's
+  position in free space, followed by pseudo-random data from both, so that
+  a disk can't compress or combine blocks.
+*/
+  static void createProbeTag(
+    byte[] buffer,                // block to be filled
+    long randomBase,              // base for this probe
+    long where)                   // position of block in free space
+  {
+    new java.util.Random(randomBase + where).nextBytes(buffer);
+    ByteBuffer.wrap(buffer).putLong(randomBase).putLong(where); // tag
+  }
+
+
 /*
   createFilename() method
 
@@ -1186,6 +1914,14 @@ public class EraseDisk3
     }
     cancelFlag = true;            // tell other threads that all work stops now
     doPauseClear();               // force end to pause if necessary
+
+    /* Threads may be blocked for seconds in a read, write, or wait.  Reading
+    and writing is done with file channels, which are interruptible: the channel
+    is closed and the blocked thread gets an exception.  All worker threads are
+    created by "eraseThread", so they belong to the same thread group. */
+
+    if (eraseGroup != null)       // has an erase been started?
+      eraseGroup.interrupt();     // stop waiting, stop blocked I/O
   }
 
 
@@ -1232,6 +1968,7 @@ public class EraseDisk3
     {
       pauseButton.setMnemonic(KeyEvent.VK_R); // change key for "Resume"
       pauseButton.setText("Resume"); // change "Pause" to "Resume" button
+      pauseLatch.close();         // before anyone sees <pauseFlag>
       pauseFlag = true;           // set flag to enter wait state soon
     }
   }
@@ -1247,31 +1984,30 @@ public class EraseDisk3
   This method must be called from a secondary thread, not from the main thread
   that runs the GUI.
 
-  Don't call doPauseClear() here, or else interaction between notify() and
-  wait() can be confusing.  Duplicate some code as necessary.
+  Don't call doPauseClear() here, or else interaction between the GUI thread
+  and this thread can be confusing.  Duplicate some code as necessary.  The
+  latch remembers if "Resume" was clicked before we started waiting.
 */
   static void doPauseCheck()
   {
     if (pauseFlag)                // only if "Pause" button clicked
     {
-      long stopClock = System.currentTimeMillis(); // time to begin pause
+      long stopClock = clockMillis(); // time to begin pause
       long hideJob = stopClock - clockJobStart + clockJobSaved;
       long hidePass = stopClock - clockPassStart + clockPassSaved;
 //    clockJobSaved = clockPassSaved = 0; // start pause timer from zero
 //    clockJobStart = clockPassStart = stopClock;
 
-      synchronized (pauseWaiter)  // enter into a wait state
-      {
-        try { pauseWaiter.wait(); } catch (InterruptedException ie) { }
-      }
+      pauseLatch.await();         // enter into a wait state
       pauseButton.setMnemonic(PAUSE_BUTTON_MNEMONIC); // restore original
       pauseButton.setText(PAUSE_BUTTON_TEXT); // restore original text
       pauseFlag = false;          // no longer waiting for user
 
       clockJobSaved = hideJob;    // bring back previous elapsed time
       clockPassSaved = hidePass;
-      clockJobStart = clockPassStart = System.currentTimeMillis();
+      clockJobStart = clockPassStart = clockMillis();
                                   // starting time after pause
+      runPaceBytes = -1;          // don't count pause as time spent writing
     }
   } // end of doPauseCheck() method
 
@@ -1284,13 +2020,26 @@ public class EraseDisk3
 */
   static void doPauseClear()
   {
-    synchronized (pauseWaiter) { pauseWaiter.notifyAll(); }
+    pauseLatch.open();            // wake up all threads that are waiting
     pauseButton.setMnemonic(PAUSE_BUTTON_MNEMONIC); // restore original
     pauseButton.setText(PAUSE_BUTTON_TEXT); // restore original text
     pauseFlag = false;            // no longer waiting for user
   }
 
 
+/*
+  doPauseWait() method
+
+  Worker threads (other than the main "eraseThread") call this method to wait
+  while the "Pause" button is active.  They don't restore buttons or adjust
+  elapsed times; the main thread does that in doPauseCheck().
+*/
+  static void doPauseWait()
+  {
+    pauseLatch.await();           // until resume or cancel
+  }
+
+
 /*
   doSaveButton() method
 
@@ -1482,7 +2231,8 @@ public class EraseDisk3
 
     /* Start a new secondary thread to do the real work. */
 
-    runner = new Thread(new EraseDisk3User(), "eraseThread");
+    eraseGroup = new ThreadGroup("eraseGroup"); // workers join this group
+    runner = new Thread(eraseGroup, new EraseDisk3User(), "eraseThread");
     runner.setPriority(Thread.MIN_PRIORITY); // use lowest priority in Java VM
     runner.start();               // now run as separate thread to erase disk
 
@@ -1534,6 +2284,10 @@ public class EraseDisk3
     erasePanelFileAction.select(0, 0); // scroll left if text field too small
     erasePanelGrid.addRate(rate); // append to end of rate history graph
     erasePanelGridScale.setText(formatSpeed(erasePanelGrid.maxFound));
+    erasePanelMap.repaint();      // verify threads only change map data
+    erasePanelZones.updateZones(passDone, (clockMillis() - clockPassStart
+      + clockPassSaved));         // elapsed time for this pass, no pauses
+    erasePanelZones.repaint();
     runPassPrevBytes = passDone;  // remember previously reported amount
     runPassPrevRate = rate;       // remember current bytes per second
 
@@ -1617,13 +2371,13 @@ public class EraseDisk3
     want to see bigger numbers when the program runs for a long time! */
 
     erasePanelPassTime.setText("Elapsed time for this " + runPassAction
-      + " pass (all files) is " + formatClock(System.currentTimeMillis()
+      + " pass (all files) is " + formatClock(clockMillis()
       - clockPassStart + clockPassSaved) + ".");
     erasePanelPassTime.select(0, 0);
 
     if ((totalDone > passDone) || (runTotalErrors > 0))
     {
-      erasePanelTotalTime.setText(formatClock(System.currentTimeMillis()
+      erasePanelTotalTime.setText(formatClock(clockMillis()
         - clockJobStart + clockJobSaved) + " and "
         + formatComma.format(runTotalBytesDone) + " bytes total"
         + ((runTotalErrors > 0) ? ", with errors." : " for all passes."));
@@ -1635,6 +2389,53 @@ public class EraseDisk3
   } // end of doStatusTimer() method
 
 
+/*
+  finishDelete() method
+
+  Wait for background threads to delete temporary files from a previous pass,
+  then report the results, including how long the deletion took (which may
+  overlap with writing).  Errors are added to our running total.
+*/
+  static void finishDelete(boolean previousFlag)
+  {
+    fileDeleter.waitAll();        // wait for all files to be deleted
+    fileDeleter.putLines();       // report errors, if any, in file order
+    putOutput("Deleted " + prettyPlural(fileDeleter.deleteCount,
+      "temporary file") + (previousFlag ? " from previous pass" : "")
+      + " in " + formatHours(fileDeleter.stopMillis - fileDeleter.startMillis)
+      + ".");
+    runTotalErrors += fileDeleter.errorCount; // errors deleting files
+    fileDeleter = null;           // no more files being deleted
+  }
+
+
+/*
+  forceFile() method
+
+  Force data written to a file channel onto the disk, and add the time taken
+  to our running totals.  Otherwise, the system may keep gigabytes of "written"
+  data in memory, and our reported speeds are for the cache, not the disk.  We
+  only force file contents, not metadata (dates, sizes, etc), which is faster
+  and all that we need.  Errors are reported but otherwise ignored; the file
+  may still be read verified later.
+*/
+  static void forceFile(FileChannel channel, String fileName)
+  {
+    long start = clockMillis(); // starting time for this force
+    try { channel.force(false); } // file contents only, not metadata
+    catch (IOException ioe)
+    {
+      putOutput(fileName + " - " + ioe.getMessage());
+      runTotalErrors ++;          // one more error detected
+    }
+    long millis = clockMillis() - start; // time for this force
+    runFileForceMillis += millis; // add to time for this file
+    runFileForceNext = runFileBytesDone + forceInterval;
+                                  // next periodic forced write, if any
+    runPassForceMillis += millis; // add to time for this pass
+  }
+
+
 /*
   formatByteSize() method
 
@@ -1719,6 +2520,19 @@ public class EraseDisk3
   }
 
 
+/*
+  formatPercent() method
+
+  Format one part of a whole as a percentage with one decimal digit.  Zero for
+  the whole gives zero, not an error.
+*/
+  static String formatPercent(long part, long whole)
+  {
+    return(formatPointOne.format((whole > 0) ? ((double) part * 100.0
+      / (double) whole) : 0.0) + "%");
+  }
+
+
 /*
   formatSpeed() method
 
@@ -1739,6 +2553,73 @@ public class EraseDisk3
   }
 
 
+/*
+  paceWrite() method
+
+  Called by the main thread after each buffer is written (or queued for a
+  worker thread), to limit our share of the disk.  With the "-l" option, we
+  sleep whenever we get ahead of the user's data rate.  If we fall too far
+  behind, we don't try to catch up later with a burst of writes.  With the
+  "-n" option, we sleep for a fraction of the time spent writing, depending
+  upon how busy the disk appears to be (see NICE_FACTOR).  Our own sleeping
+  isn't counted as time spent writing, and neither is a pause.
+*/
+  static void paceWrite(int bytes)
+  {
+    long ahead;                   // milliseconds ahead of "-l" rate limit
+    long now;                     // current time in milliseconds
+    double sample;                // milliseconds per byte, latest window
+    long wait;                    // milliseconds that we should sleep
+
+    if ((rateLimit == 0) && (niceFlag == false)) // no pacing wanted?
+      return;                     // then do nothing, quickly
+    now = clockMillis();          // current time in milliseconds
+    if (runPaceBytes < 0)         // start of pass, or after a pause?
+    {
+      runNiceBusy = runNiceBytes = runPaceBytes = 0;
+      runNiceLast = runPaceStart = now;
+    }
+    runNiceBusy += now - runNiceLast; // time spent writing since last call
+    runNiceBytes += bytes;        // bytes written during this window
+    runPaceBytes += bytes;        // bytes written with the rate limit
+    wait = 0;                     // assume that we won't need to sleep
+
+    if (niceFlag && (runNiceBusy >= NICE_WINDOW)) // end of this window?
+    {
+      sample = (double) runNiceBusy / (double) runNiceBytes;
+      if ((runNiceBase <= 0.0) || (sample < runNiceBase)) // new best time?
+        runNiceBase = sample;     // yes, compare future windows to this
+      else                        // no, slowly forget old best time
+        runNiceBase *= NICE_DRIFT;
+      if (sample > (runNiceBase * NICE_FACTOR)) // is the disk busy?
+        runNiceFactor = Math.min(NICE_MAXIMUM, Math.max(NICE_MINIMUM,
+          (runNiceFactor * 2.0))); // yes, sleep longer
+      else if ((runNiceFactor /= 2.0) < NICE_MINIMUM) // no, sleep less
+        runNiceFactor = 0.0;      // or not at all
+      wait = (long) (runNiceBusy * runNiceFactor); // share of this window
+      if (debugFlag && (wait > 0)) // does user want details?
+        putOutput(runFileName + " - disk appears busy, sleeping for "
+          + wait + " milliseconds");
+      runNiceBusy = runNiceBytes = 0; // start the next window
+    }
+
+    if (rateLimit > 0)            // does user want a limit on data rate?
+    {
+      ahead = runPaceStart + (runPaceBytes * 1000 / rateLimit) - now;
+      if (ahead < (- RATE_SLACK)) // too far behind the limit?
+      {
+        runPaceBytes = 0;         // yes, start again from now
+        runPaceStart = now;
+      }
+      else if (ahead > wait)      // ahead by more than we already sleep?
+        wait = ahead;             // yes, sleep until back on schedule
+    }
+
+    sleep(wait);                  // let other programs use the disk
+    runNiceLast = clockMillis();  // writing starts again now
+  }
+
+
 /*
   parseFileSize() method
 
@@ -1845,6 +2726,321 @@ public class EraseDisk3
   } // end of prettyPlural() method
 
 
+/*
+  probeCapacity() method
+
+  Quick probe for counterfeit disks ("-a" option).  Create temporary files that
+  fill the free space, without writing them, then write one small block tagged
+  with its position at evenly spaced places in all files.  Read the blocks back
+  in a shuffled order.  A block that doesn't match was either lost, or reads
+  back as another block (wraparound).  Everything before the first bad block is
+  good, so the real usable capacity is between there and the previous block.
+  The temporary files are deleted by startErase() when we are done.
+
+  File systems with sparse files (ext4, XFS, btrfs, APFS, etc) don't reserve
+  any space for files created without writing them, and tagged blocks go
+  wherever the file system wants, usually all together near the start of the
+  disk.  We check that free space went down by the size of the files, and
+  stop if it didn't, because the probe would find nothing wrong.
+*/
+  static void probeCapacity()
+  {
+    byte[] actual;                // data bytes read from one block
+    ByteBuffer actualWrapper;     // <actual> for channel reads
+    int badCount;                 // number of bad blocks found
+    long[] blockAlias;            // position tagged in a bad block, or -1
+    int blockCount;               // number of tagged blocks
+    int[] blockFile;              // file number for each block
+    long[] blockOffset;           // offset in file for each block
+    long[] blockWhere;            // position in free space for each block
+    FileChannel channel;          // channel for <raf>
+    byte[] expect;                // correct data bytes for one block
+    int fileNumber;               // current file number, up to <numFiles>
+    long fileBase;                // position in free space of current file
+    long fileSize;                // size of current file
+    long[] fileSizes;             // size of each file that we created
+    long freeAfter;               // free bytes after creating files, or -1
+    long freeSpace;               // free bytes on disk, or -1 if unknown
+    int numFiles;                 // number of files that we have created
+    int[] order;                  // block numbers in shuffled order
+    long probeBytes;              // total bytes in all files
+    long randomBase;              // base for tags and random data
+    java.util.Random randomGen;   // fancy pseudo-random number generator
+    RandomAccessFile raf;         // current temporary file
+    long startClock;              // starting time for this probe
+
+    erasePanelTitle.setText("Probing disk capacity...");
+    putOutput("");                // blank line
+    putOutput("Probing disk capacity with tagged blocks...");
+    randomBase = System.currentTimeMillis(); // different tags for each probe
+    startClock = clockMillis();   // starting time for this probe
+
+    /* Find the free space.  Older versions of Java must use the total size
+    for all files, from the options panel. */
+
+    freeSpace = usableSpace(userFolder); // -1 if not found before Java 6
+    if (freeSpace >= 0)           // do we know the free space?
+      probeBytes = Math.min((freeSpace - PROBE_MARGIN), userPassSize);
+    else if (userPassSize < PASS_SIZE_DEFAULT) // did user give total size?
+      probeBytes = userPassSize;
+    else
+    {
+      putOutput("Can't find free space with this version of Java.  Please"
+        + " give a total size for all files.");
+      runTotalErrors ++;          // one more error detected
+      return;
+    }
+
+    /* Create files without writing data.  If a file can't be as big as we
+    want (disk full, or maximum file size), then try half the size. */
+
+    fileSizes = new long[userFileCount]; // no more files than this
+    numFiles = 0;                 // no files created yet
+    while ((cancelFlag == false) && (probeBytes >= PROBE_SIZE)
+      && (numFiles < userFileCount))
+    {
+      fileSize = Math.min(userFileSize, probeBytes);
+      fileSize -= fileSize % PROBE_SIZE; // whole blocks only
+      runFileName = createFilename(numFiles + 1); // formatted name
+      while (fileSize >= PROBE_SIZE)
+      {
+        try
+        {
+          raf = new RandomAccessFile(new File(userFolder, runFileName), "rw");
+          try { raf.setLength(fileSize); } // may fill with zeros (slow)
+          finally { raf.close(); }
+          break;                  // this file is created
+        }
+        catch (IOException ioe)   // assume disk full or file too big
+        {
+          fileSize /= 2;          // try half the size
+          fileSize -= fileSize % PROBE_SIZE;
+        }
+      }
+      if (fileSize < PROBE_SIZE)  // no room for even one block?
+      {
+        new File(userFolder, runFileName).delete(); // ignore result
+        break;                    // stop creating files
+      }
+      numFiles ++;                // one more file created
+      probeBytes -= fileSize;     // less free space to fill
+      fileSizes[numFiles - 1] = fileSize;
+    }
+    keepCount = numFiles;         // startErase() deletes these files
+    if (cancelFlag || (numFiles == 0)) // nothing to probe?
+    {
+      if (cancelFlag == false)
+      {
+        putOutput("Can't create temporary files to probe the disk.");
+        runTotalErrors ++;        // one more error detected
+      }
+      return;
+    }
+
+    /* Spread the tagged blocks evenly from the first to the last block of free
+    space, and find which file has each block. */
+
+    probeBytes = 0;               // total bytes in all files
+    for (int i = 0; i < numFiles; i ++)
+      probeBytes += fileSizes[i];
+    putOutput("Created " + prettyPlural(numFiles, "temporary file") + " with "
+      + formatComma.format(probeBytes) + " bytes of free space.");
+
+    /* Free space should now be smaller by about the size of the files.  If it
+    is down by less than half, the file system didn't allocate the files. */
+
+    freeAfter = usableSpace(userFolder); // -1 if not found before Java 6
+    if ((freeSpace >= 0) && (freeAfter >= 0)
+      && ((freeSpace - freeAfter) < (probeBytes / 2)))
+    {
+      putOutput("Free space only went down by " + formatComma.format(
+        freeSpace - freeAfter) + " bytes, so the file system didn't allocate"
+        + " the files (sparse files), and the probe can't be trusted.");
+      runTotalErrors ++;          // one more error detected
+      return;
+    }
+    blockCount = (int) Math.min(PROBE_BLOCKS, (probeBytes / PROBE_SIZE));
+    blockAlias = new long[blockCount];
+    blockFile = new int[blockCount];
+    blockOffset = new long[blockCount];
+    blockWhere = new long[blockCount];
+    fileBase = 0;                 // first file starts free space
+    fileNumber = 1;
+    for (int i = 0; i < blockCount; i ++)
+    {
+      blockWhere[i] = (long) ((double) (probeBytes - PROBE_SIZE) * i
+        / Math.max(1, (blockCount - 1)));
+      blockWhere[i] -= blockWhere[i] % PROBE_SIZE; // whole blocks only
+      while (blockWhere[i] >= (fileBase + fileSizes[fileNumber - 1]))
+      {                           // is this block past the current file?
+        fileBase += fileSizes[fileNumber - 1];
+        fileNumber ++;            // try the next file
+      }
+      blockAlias[i] = -1;         // not a bad block yet
+      blockFile[i] = fileNumber;
+      blockOffset[i] = blockWhere[i] - fileBase;
+    }
+
+    /* Write the tagged blocks, in order, and force each file onto the disk. */
+
+    actual = new byte[PROBE_SIZE];
+    actualWrapper = ByteBuffer.wrap(actual);
+    expect = new byte[PROBE_SIZE];
+    runFileAction = "Writing";    // tag saying if reading or writing
+    runPassAction = "write";
+    runPassBytesDone = runPassPrevBytes = 0;
+    runPassEstMax = (long) blockCount * PROBE_SIZE; // exact size
+    raf = null;                   // no file open yet
+    for (int i = 0; (cancelFlag == false) && (i <= blockCount); i ++)
+    {
+      if (pauseFlag) doPauseCheck(); // wait if user is busy
+      try
+      {
+        if ((raf != null) && ((i == blockCount)
+          || (blockFile[i] != blockFile[i - 1]))) // finished with this file?
+        {
+          raf.getChannel().force(false); // push tags onto the disk
+          raf.close();
+          raf = null;
+        }
+        if (i == blockCount)      // was that the last file?
+          break;
+        runFileName = createFilename(blockFile[i]); // formatted name
+        if (raf == null)          // need to open this file?
+          raf = new RandomAccessFile(new File(userFolder, runFileName), "rw");
+        channel = raf.getChannel();
+        createProbeTag(expect, randomBase, blockWhere[i]);
+        ByteBuffer writeBuffer = ByteBuffer.wrap(expect);
+        while (writeBuffer.hasRemaining()) // channel may write less
+          channel.write(writeBuffer, (blockOffset[i] + writeBuffer.position()));
+      }
+      catch (IOException ioe)     // report error, later read will fail too
+      {
+        putOutput(runFileName + " - " + ioe.getMessage());
+        runTotalErrors ++;        // one more error detected
+        if (raf != null) try { raf.close(); } catch (IOException ioe2) { }
+        raf = null;               // open again for next block, if any
+      }
+      runPassBytesDone += PROBE_SIZE; // one more block done
+      runTotalBytesDone += PROBE_SIZE;
+    }
+    if (raf != null) try { raf.close(); } catch (IOException ioe) { }
+
+    /* Read the blocks back in a shuffled order, so that no block is read just
+    after it was written.  Check the tag in any block that doesn't match. */
+
+    if ((cancelFlag == false) && optionRandomPrompt.isSelected())
+      promptReinsert();           // so we don't read from the system cache
+    order = new int[blockCount];
+    randomGen = new java.util.Random(randomBase);
+    for (int i = 0; i < blockCount; i ++)
+    {
+      int k = randomGen.nextInt(i + 1); // shuffle as we go
+      order[i] = order[k];
+      order[k] = i;
+    }
+    runFileAction = "Reading";    // tag saying if reading or writing
+    runPassAction = "read";
+    runPassBytesDone = runPassPrevBytes = 0;
+    for (int j = 0; (cancelFlag == false) && (j < blockCount); j ++)
+    {
+      if (pauseFlag) doPauseCheck(); // wait if user is busy
+      int i = order[j];           // block number to read next
+      runFileName = createFilename(blockFile[i]); // formatted name
+      actualWrapper.clear();      // start again from beginning of buffer
+      try
+      {
+        raf = new RandomAccessFile(new File(userFolder, runFileName), "r");
+        try
+        {
+          channel = raf.getChannel();
+          while (actualWrapper.hasRemaining() && (channel.read(actualWrapper,
+            (blockOffset[i] + actualWrapper.position())) > 0)) { }
+        }
+        finally { raf.close(); }
+      }
+      catch (IOException ioe)     // treat as a lost block
+      {
+        putOutput(runFileName + " - " + ioe.getMessage());
+      }
+      createProbeTag(expect, randomBase, blockWhere[i]);
+      if ((actualWrapper.hasRemaining() == false)
+        && java.util.Arrays.equals(actual, expect))
+      {
+        blockAlias[i] = -1;       // correct block
+      }
+      else if (ByteBuffer.wrap(actual).getLong(0) == randomBase)
+      {                           // tagged by this probe, wrong position?
+        blockAlias[i] = ByteBuffer.wrap(actual).getLong(8);
+      }
+      else
+        blockAlias[i] = Long.MAX_VALUE; // block was lost, not replaced
+      runPassBytesDone += PROBE_SIZE; // one more block done
+      runTotalBytesDone += PROBE_SIZE;
+    }
+    runFileName = null;           // no particular file name
+    if (cancelFlag) return;       // stop if user hit the panic button
+
+    /* Report bad blocks in order of their position, and where the first bad
+    block is. */
+
+    badCount = 0;                 // no bad blocks yet
+    for (int i = 0; i < blockCount; i ++)
+    {
+      if (blockAlias[i] < 0)      // correct block?
+        continue;
+      if (badCount == 0)          // first bad block?
+        putOutput("Usable free space appears to be between "
+          + formatComma.format((i > 0) ? (blockWhere[i - 1] + PROBE_SIZE) : 0)
+          + " and " + formatComma.format(blockWhere[i]) + " bytes, not "
+          + formatComma.format(probeBytes) + ".");
+      if (badCount < PROBE_SAVED) // report this block in detail?
+        putOutput(createFilename(blockFile[i]) + " - block at "
+          + formatComma.format(blockWhere[i]) + ((blockAlias[i]
+          == Long.MAX_VALUE) ? " was lost" : (" reads back as block at "
+          + formatComma.format(blockAlias[i]))));
+      badCount ++;                // one more bad block
+    }
+    if (badCount > PROBE_SAVED)   // were there more than we reported?
+      putOutput(prettyPlural((badCount - PROBE_SAVED), "more bad block")
+        + " not shown.");
+    runTotalErrors += badCount;   // each bad block is an error
+    putOutput("Probe found " + prettyPlural(badCount, "bad block") + " out of "
+      + formatComma.format(blockCount) + " in "
+      + formatHours(clockMillis() - startClock) + ".");
+
+  } // end of probeCapacity() method
+
+
+/*
+  promptReinsert() method
+
+  Prompt the user to eject and reinsert any removable media such as a floppy
+  disk or USB flash drive, so that data we read comes from the disk and not
+  from the system cache.  We save and restore both timers (job, pass) so they
+  can synchronize to zero while waiting for the user.
+*/
+  static void promptReinsert()
+  {
+    long stopClock = clockMillis(); // time to begin pause
+    long hideJob = stopClock - clockJobStart + clockJobSaved;
+    long hidePass = stopClock - clockPassStart + clockPassSaved;
+//  clockJobSaved = clockPassSaved = 0; // start pause timer from zero
+//  clockJobStart = clockPassStart = stopClock;
+
+    JOptionPane.showMessageDialog(mainFrame,
+      ("If your disk is on removable media, then:\n"
+      + "1. Remove (eject) the disk normally;\n"
+      + "2. Reinsert the disk; and\n"
+      + "3. Click the OK button here."));
+
+    clockJobSaved = hideJob;      // bring back previous elapsed time
+    clockPassSaved = hidePass;
+    clockJobStart = clockPassStart = clockMillis();
+                                  // starting time after pause
+  }
+
+
 /*
   putOutput() method
 
@@ -1872,6 +3068,377 @@ public class EraseDisk3
   }
 
 
+/*
+  putPassTimes() method
+
+  Report where the elapsed time went for one pass (writing or read verify),
+  and how much CPU time we used, so that a slow computer can be told apart
+  from a slow disk.  Queued writes are timed while the main thread waits for
+  them.  With more than one verify thread, read times are added up for all
+  threads, and can be more than the elapsed time, so there is no "other" time.
+  CPU time is for writing and verifying, not for deleting files or the GUI, and
+  is missing before Java 5.0 or when the run-time doesn't measure it.
+*/
+  static void putPassTimes(
+    boolean readFlag,             // true if read verify, false if writing
+    long passTimeUsed,            // elapsed time in millis for this pass
+    long passBytes)               // bytes read or written in this pass
+  {
+    long cpuNanos;                // CPU time for all threads this pass
+    long otherNanos;              // time not used by any step we measure
+    long totalNanos;              // time for percentages
+
+    if (readFlag)                 // read verify?
+    {
+      totalNanos = runPassCompareNanos + runPassGenerateNanos
+        + runPassTransferNanos;   // threads may overlap, so add them up
+      otherNanos = 0;
+      if (verifyThreads == 1)     // everything was on this thread?
+      {
+        totalNanos = Math.max(totalNanos, (passTimeUsed * 1000000));
+        otherNanos = totalNanos - runPassCompareNanos - runPassGenerateNanos
+          - runPassTransferNanos;
+      }
+      putOutput("Read time was " + formatPercent(runPassTransferNanos,
+        totalNanos) + " read calls, " + formatPercent(runPassGenerateNanos,
+        totalNanos) + " generating data, " + formatPercent(runPassCompareNanos,
+        totalNanos) + " comparing data" + ((verifyThreads == 1) ? (", "
+        + formatPercent(otherNanos, totalNanos) + " other.") : (", added up"
+        + " for " + verifyThreads + " threads.")));
+    }
+    else                          // writing
+    {
+      if (dataGenerator != null)  // CPU time used for new random data
+        runPassCpuNanos += dataGenerator.takeCpuNanos();
+      if (writerList != null)     // CPU time used by queued writes
+        for (int k = 0; k < writerList.length; k ++)
+          runPassCpuNanos += writerList[k].takeCpuNanos();
+      totalNanos = Math.max((passTimeUsed * 1000000), (runPassDeleteNanos
+        + (runPassForceMillis * 1000000) + runPassGenerateNanos
+        + runPassTransferNanos)); // clocks may not agree exactly
+      otherNanos = totalNanos - runPassDeleteNanos - (runPassForceMillis
+        * 1000000) - runPassGenerateNanos - runPassTransferNanos;
+      putOutput("Write time was " + formatPercent(runPassGenerateNanos,
+        totalNanos) + " generating data, " + formatPercent(runPassTransferNanos,
+        totalNanos) + " write calls, " + formatPercent((runPassForceMillis
+        * 1000000), totalNanos) + " forcing onto disk, " + formatPercent(
+        runPassDeleteNanos, totalNanos) + " waiting for deletes, "
+        + formatPercent(otherNanos, totalNanos) + " other.");
+    }
+
+    /* CPU time per gigabyte shows if data is generated and compared quickly
+    enough for this disk: compare with the elapsed time per gigabyte. */
+
+    if ((runPassCpuStart >= 0) && (passBytes > 0))
+    {
+      cpuNanos = runPassCpuNanos + threadCpuNanos() - runPassCpuStart;
+      putOutput("CPU time was " + formatHours(cpuNanos / 1000000) + ", or "
+        + formatHours((long) ((double) cpuNanos / 1000000.0 * 0x40000000
+        / passBytes)) + " per GB, compared to " + formatHours((long) ((double)
+        passTimeUsed * 0x40000000 / passBytes)) + " elapsed per GB.");
+    }
+  }
+
+
+/*
+  rewriteFiles() method
+
+  Rewrite temporary files created by an earlier pass, in place, without
+  deleting and creating them again (the "-i" option).  Each file keeps its
+  size, so space is already allocated and we don't need smaller buffers to
+  find the end of the disk.  Returns the number of files rewritten, which may
+  be less than the number created if the user cancels or there is an error.
+*/
+  static int rewriteFiles(
+    boolean randomFlag,           // true if using pseudo-random sequence
+    byte[] dataBuffer,            // data bytes prepared by startEraser()
+    int sizeLimit,                // first and assumed maximum buffer size
+    java.util.Random randomGen,   // pseudo-random number generator
+    long randomBase)              // start all random sequences from same base
+  {
+    FileChannel channel;          // channel for <raf>, positional writes
+    int dataIndex;                // starting index of block in data buffer
+    String fileName;              // name of current file
+    int numFiles;                 // number of files rewritten so far
+    RandomAccessFile raf;         // existing file, opened without truncating
+    long start;                   // clockNanos() before each step
+    int thisSize;                 // number of bytes in current block
+    long where;                   // position in file for current block
+    ByteBuffer writeBuffer;       // data bytes for current block
+
+    numFiles = 0;                 // no files rewritten yet
+    while ((cancelFlag == false) && (numFiles < placeCount))
+    {
+      if (pauseFlag) doPauseCheck(); // wait if user is busy
+
+      /* Open an existing temporary file.  A FileOutputStream would truncate
+      the file and release its space, which is what we want to avoid. */
+
+      fileName = createFilename(numFiles + 1); // formatted name with number
+      try { raf = new RandomAccessFile(new File(userFolder, fileName), "rw"); }
+      catch (FileNotFoundException fnfe) // the only documented exception
+      {
+        putOutput(fileName + " - can't open temporary file");
+        runTotalErrors ++;        // one more error detected
+        break;                    // exit early from <while> loop
+      }
+      numFiles ++;                // one more temporary file rewritten
+      channel = raf.getChannel(); // for positional writes
+      if (debugFlag)              // does user want details?
+        putOutput(fileName + " - temporary file opened");
+
+      randomGen.setSeed(randomBase + numFiles);
+                                  // start each file with a known random seed
+      if (dataCipher != null)     // key for AES/CTR key stream, if used
+        dataCipher.restart(randomBase + numFiles);
+      else if (randomFlag && (dataGenerator != null)) // same sequence, ahead
+        dataGenerator.restart(randomBase + numFiles); // ... of time
+      runFileBytesDone = 0;       // no bytes written yet
+      runFileEstMax = placeSizes[numFiles]; // we know the exact size
+      runFileForceMillis = 0;     // no time spent forcing data onto disk
+      runFileForceNext = forceInterval; // first periodic forced write, if any
+      runFileName = fileName;     // save name for next update by timer
+      runFileThrottleDone = 0;    // no background forced writes yet
+
+      /* Write the same blocks as startEraser() would, with a partial block at
+      the end, if the file size isn't a multiple of the full buffer size. */
+
+      try
+      {
+        while ((cancelFlag == false)
+          && (runFileBytesDone < placeSizes[numFiles]))
+        {
+          if (pauseFlag) doPauseCheck(); // wait if user is busy
+
+          start = clockNanos();   // time for generating data
+          if (randomFlag == false) // constant value for data bytes?
+          {
+            dataIndex = 0;        // always at beginning for constant data
+          }
+          else if (dataCipher != null) // AES/CTR key stream at this offset?
+          {
+            dataCipher.fillBlock(dataBuffer, sizeLimit, runFileBytesDone);
+            dataIndex = 0;        // start from beginning of data buffer
+          }
+          else if (FAST_RANDOM)   // do we re-use old random numbers?
+          {
+            dataIndex = randomGen.nextInt(sizeLimit);
+                                  // somewhat random starting index
+          }
+          else                    // always generate random numbers (slow)
+          {
+            dataBuffer = dataGenerator.swapBuffer(dataBuffer);
+                                  // new random bytes, filled ahead of time
+            dataIndex = 0;        // start from beginning of data buffer
+          }
+          thisSize = (int) Math.min(sizeLimit,
+            (placeSizes[numFiles] - runFileBytesDone));
+          writeBuffer = ByteBuffer.wrap(dataBuffer, dataIndex, thisSize);
+          where = runFileBytesDone; // channel may write less than requested
+          runPassGenerateNanos += clockNanos() - start;
+
+          start = clockNanos();   // time for write calls
+          while (writeBuffer.hasRemaining())
+            where += channel.write(writeBuffer, where);
+          runPassTransferNanos += clockNanos() - start;
+
+          runFileBytesDone += thisSize; // add to bytes done for this file
+          runPassBytesDone += thisSize; // bytes done all files, this pass
+          runTotalBytesDone += thisSize; // bytes all passes, all data types
+          if ((forceInterval > 0) && (runFileBytesDone >= runFileForceNext))
+            forceFile(channel, fileName); // periodic forced write
+          if ((throttleBytes > 0) && ((runFileBytesDone - runFileThrottleDone)
+            >= (throttleBytes / 2)))
+            throttleFile(channel, fileName); // background forced write
+          paceWrite(thisSize);    // limit our share of the disk
+        }
+      }
+      catch (IOException ioe)     // space is allocated, so this is serious
+      {
+        putOutput(fileName + " - " + ioe.getMessage());
+        runTotalErrors ++;        // one more error detected
+      }
+      if (throttleBytes > 0)      // must finish before closing the file
+        throttleWait(fileName);
+      if ((cancelFlag == false) && forceFlag)
+        forceFile(channel, fileName);
+      try { raf.close(); } catch (IOException ioe) { /* ignore errors */ }
+
+      if (cancelFlag == false)    // if the user didn't interrupt us
+      {
+        putOutput(fileName + " - " + formatComma.format(runFileBytesDone)
+          + " bytes rewritten" + ((forceFlag || (throttleBytes > 0)) ? (", "
+          + formatHours(runFileForceMillis) + " to force onto disk") : ""));
+      }
+    }
+    return(numFiles);             // number of files rewritten
+
+  } // end of rewriteFiles() method
+
+
+/*
+  saveManifest() method
+
+  Save the manifest for temporary files kept from the last pass ("-k" option)
+  in the same folder as the files.  The disk is full, so if there isn't room,
+  make the last file shorter and try once more.  (The last few files are often
+  very small, so we shorten the last file that is big enough.)  The manifest is
+  a standard Java properties file.  Return true if the manifest was saved, or
+  false if the caller should delete the files instead.
+*/
+  static boolean saveManifest()
+  {
+    String fileName;              // name of temporary file to shorten
+    long fileSize;                // new size of that temporary file
+    File fp;                      // File object for manifest
+    int numFiles;                 // number of kept files
+    FileOutputStream output;      // byte output stream for manifest
+    int shortFile;                // file number to make shorter
+
+    fp = new File(userFolder, MANIFEST_FILE_NAME);
+    numFiles = Integer.parseInt(keepManifest.getProperty("numFiles"));
+    for (int tries = 1; tries <= 2; tries ++) // disk may be full at first
+    {
+      output = null;              // nothing opened yet
+      try
+      {
+        output = new FileOutputStream(fp);
+        keepManifest.store(output, PROGRAM_TITLE);
+        output.close();
+        return(true);             // manifest was saved
+      }
+      catch (IOException ioe)     // assume "disk is full"
+      {
+        if (output != null)       // close partial manifest, if any
+          try { output.close(); } catch (IOException ioe2) { }
+        if (tries > 1)            // did we already make room?
+        {
+          fp.delete();            // don't leave a partial manifest
+          putOutput(MANIFEST_FILE_NAME + " - " + ioe.getMessage());
+          runTotalErrors ++;      // one more error detected
+          return(false);          // caller deletes files instead
+        }
+      }
+
+      /* Make room by shortening a file, and change its size in the manifest
+      to match. */
+
+      shortFile = numFiles;       // start with the last file
+      while ((shortFile > 1) && (new File(userFolder, createFilename(
+        shortFile)).length() < MANIFEST_RESERVE))
+        shortFile --;             // too small, try previous file
+      fileName = createFilename(shortFile); // formatted name with number
+      try
+      {
+        RandomAccessFile raf = new RandomAccessFile(new File(userFolder,
+          fileName), "rw");
+        fileSize = Math.max(0, (raf.length() - MANIFEST_RESERVE));
+        raf.setLength(fileSize);  // release space at end of file
+        raf.close();
+      }
+      catch (IOException ioe)
+      {
+        putOutput(fileName + " - " + ioe.getMessage());
+        runTotalErrors ++;        // one more error detected
+        return(false);            // caller deletes files instead
+      }
+      keepManifest.setProperty(fileName, String.valueOf(fileSize));
+      putOutput(fileName + " - shortened to " + formatComma.format(fileSize)
+        + " bytes to make room for manifest");
+    }
+    return(false);                // not reached, keeps compiler happy
+
+  } // end of saveManifest() method
+
+
+/*
+  saveZones() method
+
+  Stop the throughput profile at the end of a phase (writing or read verify).
+  With the "-z" option, add this phase to the CSV lines for the job, and write
+  the whole file again, so that earlier phases are saved if a later phase is
+  cancelled.
+*/
+  static void saveZones()
+  {
+    erasePanelZones.updateZones(runPassBytesDone, (clockMillis()
+      - clockPassStart + clockPassSaved)); // bytes since last timer update
+    erasePanelZones.stopZones();  // no more bytes for this phase
+    if (zoneText == null)         // are we saving the throughput profile?
+      return;
+    erasePanelZones.csvLines(zoneText); // zones for this phase
+    try
+    {
+      FileWriter output = new FileWriter(ZONE_FILE_NAME);
+      output.write(zoneText.toString());
+      output.close();
+      putOutput("Saved throughput profile in " + new File(ZONE_FILE_NAME)
+        .getAbsolutePath());
+    }
+    catch (IOException ioe)
+    {
+      putOutput(ZONE_FILE_NAME + " - " + ioe.getMessage());
+      runTotalErrors ++;          // one more error detected
+    }
+  } // end of saveZones() method
+
+
+/*
+  seekRandom() method
+
+  Set a pseudo-random number generator to where it would be after creating a
+  given number of data blocks from a known seed, without creating those blocks.
+  Each block of random data uses a fixed number of steps in the generator: one
+  for nextInt() with a power of two, or one per four bytes for nextBytes().  We
+  calculate the multiplier and addend for all steps at once, by squaring, like
+  raising a number to a power.  Return false if a block doesn't always use the
+  same number of steps, and the caller must replay the sequence instead.
+*/
+  static boolean seekRandom(
+    java.util.Random randomGen,   // pseudo-random number generator
+    long randomSeed,              // starting seed for this file
+    long blocks,                  // number of blocks to skip from the start
+    int sizeLimit)                // bytes per block of random data
+  {
+    long addend, multiplier;      // for all steps so far
+    long squareAdd, squareMult;   // for current power of two steps
+    long steps;                   // number of generator steps to skip
+    long value;                   // internal state of generator (48 bits)
+
+    if (FAST_RANDOM == false)     // always generate random numbers (slow)
+      steps = blocks * ((sizeLimit + 3) / 4); // nextInt() for each four bytes
+    else if ((sizeLimit & (sizeLimit - 1)) == 0) // is limit a power of two?
+      steps = blocks;             // yes, nextInt(sizeLimit) uses one step
+    else                          // nextInt() may reject and try again
+      return(false);
+
+    addend = 0;                   // nothing done yet
+    multiplier = 1;
+    squareAdd = RANDOM_ADDEND;    // one step
+    squareMult = RANDOM_MULTIPLIER;
+    while (steps > 0)             // for each bit in number of steps
+    {
+      if ((steps & 1) != 0)       // is this power of two wanted?
+      {
+        addend = ((addend * squareMult) + squareAdd) & RANDOM_MASK;
+        multiplier = (multiplier * squareMult) & RANDOM_MASK;
+      }
+      squareAdd = ((squareMult + 1) * squareAdd) & RANDOM_MASK;
+      squareMult = (squareMult * squareMult) & RANDOM_MASK;
+      steps >>= 1;                // shift next bit into position
+    }
+
+    /* java.util.Random scrambles a new seed with the multiplier, so we do the
+    same before stepping, and undo it before setting the new seed. */
+
+    value = (randomSeed ^ RANDOM_MULTIPLIER) & RANDOM_MASK;
+    value = ((multiplier * value) + addend) & RANDOM_MASK;
+    randomGen.setSeed(value ^ RANDOM_MULTIPLIER); // scrambled again by Random
+    return(true);
+
+  } // end of seekRandom() method
+
+
 /*
   showHelp() method
 
@@ -1886,20 +3453,46 @@ public class EraseDisk3
     System.err.println("This is a graphical application. You may give options on the command line:");
     System.err.println();
     System.err.println("  -? = -help = show summary of command-line syntax");
+    System.err.println("  -a = quick probe for a counterfeit disk with less capacity than it claims;");
+    System.err.println("      not for file systems with sparse files (ext4, XFS, btrfs, APFS)");
 //  System.err.println("  -b0 = hide window borders and controls; use full screen if -x1 given");
 //  System.err.println("  -b1 = -b = show borders and controls on application window (default)");
+    System.err.println("  -c = only read verify files kept by an earlier -k option; default is -c0");
     System.err.println("  -d = show debug information (may be verbose)");
+    System.err.println("  -e = keep verifying after too many errors, to find all bad ranges; default is -e0");
+    System.err.println("  -f = force each temporary file onto the disk before closing; default is -f0");
+    System.err.println("  -f(#) = also force data onto the disk after each # megabytes written;");
+    System.err.println("      example: -f(256)");
     System.err.println("  -g(#,#) = pixel width and gap spacing for vertical columns in bar graph");
+    System.err.println("  -i = later passes rewrite files from first pass in place; default is -i0");
+    System.err.println("  -k = keep temporary files from last pass for a later -c verify; default is -k0");
+    System.err.println("  -l(#) = limit writing to # megabytes per second; default is -l0 (none);");
+    System.err.println("      example: -l(50)");
+    System.err.println("  -m = save ranges found by read verify in " + MAP_FILE_NAME + "; default is -m0");
+    System.err.println("  -n = write slower when other programs are busy with disk; default is -n0");
+    System.err.println("  -p(#) = read verify a random sample of # percent of blocks, from 0.001 to 99.999;");
+    System.err.println("      default is -p0 (all blocks); example: -p(2.5)");
+    System.err.println("  -q# = number of outstanding writes per file, from 1 (default) to 64;");
+    System.err.println("      example: -q8");
     System.err.println("  -r = bar graph shows maximum observed data rate as a number");
 //  System.err.println("  -r0 = show bar graph only, hide maximum observed data rate (default)");
 //  System.err.println("  -r1 = -r = bar graph shows maximum observed data rate as a number");
+    System.err.println("  -s(#) = shrink temporary files by # megabytes at a time before deleting;");
+    System.err.println("      -s(#,#) adds a delay in milliseconds after each step; default is -s0;");
+    System.err.println("      example: -s(1024,50)");
+    System.err.println("  -t(#) = limit unforced data to # megabytes per file; default is -t0 (none);");
+    System.err.println("      example: -t(512)");
     System.err.println("  -u# = font size for buttons, dialogs, etc; default is local system;");
     System.err.println("      example: -u16");
+    System.err.println("  -v# = number of files to read verify at once, from 1 (default) to 64;");
+    System.err.println("      example: -v4");
     System.err.println("  -w(#,#,#,#) = normal window position: left, top, width, height;");
     System.err.println("      example: -w(50,50,700,500)");
     System.err.println("  -x = maximize application window; default is normal window");
 //  System.err.println("  -x0 = normal or regular window, don't maximize (default)");
 //  System.err.println("  -x1 = -x = maximize application window; full screen if -b0 given");
+    System.err.println("  -y = pseudo-random data is an AES/CTR key stream (Java 5.0 or later); default is -y0");
+    System.err.println("  -z = save data rate against byte offset for each phase in " + ZONE_FILE_NAME + "; default is -z0");
     System.err.println();
     System.err.println(COPYRIGHT_NOTICE);
 //  System.err.println();
@@ -1934,11 +3527,19 @@ public class EraseDisk3
     cancelFlag = false;           // don't cancel unless user complains
     clockJobSaved = clockPassSaved = 0;
                                   // no elapsed time before pause or prompt
-    clockJobStart = clockPassStart = System.currentTimeMillis();
+    clockJobStart = clockPassStart = clockMillis();
                                   // current starting time as system millis
     deleteFlag = true;            // we should delete our temporary files
+    fileCeiling = 0;              // no maximum file size found yet
+    fileDeleter = null;           // no files being deleted yet
+    keepCount = 0;                // no files kept from previous pass yet
+    keepManifest = null;
+    placeCount = 0;               // no files to rewrite in place yet
+    placeSizes = null;
     pauseFlag = false;            // don't pause until user clicks button
     runFileAction = runPassAction = "*"; // tags saying if reading or writing
+    zoneText = zoneFileFlag ? new StringBuffer() : null; // CSV lines
+    if (zoneText != null) zoneText.append("phase,action,start,end,rate\n");
     runFileBytesDone = runPassBytesDone = runPassPrevBytes = runTotalBytesDone
       = runTotalErrors = 0;       // reset all status counters to zero
     runFileEstMax = runPassEstMax = -1; // will find actual maximums soon
@@ -1954,6 +3555,8 @@ public class EraseDisk3
     cancelButton.setEnabled(true);
     erasePanelGrid.clearHistory();
     erasePanelGridScale.setText(EMPTY_STATUS);
+    erasePanelMap.clearMap(0);    // no verify results yet
+    erasePanelZones.clearZones(null, 0); // no throughput profile yet
     folderButton.setEnabled(false);
     optionFileCount.setEnabled(false); // prefetched, can't be changed
     optionFileSize.setEnabled(false);
@@ -1965,60 +3568,154 @@ public class EraseDisk3
 
     putOutput("Erasing in drive folder " + userFolderPath);
 
-    /* Erase the disk one or more times, with an optional verify.  Don't bother
-    "verifying" data bytes that all have the same value.  You can, if you want,
-    but it's probably a waste of time. */
+    /* Start worker threads for queued writes, if more than one write may be
+    outstanding at the same time.  They wait (idle) between requests. */
 
-    optionCustomWrite.setEnabled(false); // too late to change this option
-    if (optionCustomWrite.isSelected())
+    writerList = null;            // assume synchronous writes, no threads
+    if (queueDepth > 1)           // more than one write request at a time?
     {
-      /* Change this section for custom patterns.  You may have multiple calls
-      to startEraser().  Check <cancelFlag> before each call.  The default 0x69
-      and 0x96 simply flip half the bits, for no good technical reason. */
-
-      if (cancelFlag == false)
-        startEraser("Writing custom pattern 0x69...", false, 0x69, false,
-          false);
-
-      if (cancelFlag == false)
-        startEraser("Writing custom pattern 0x96...", false, 0x96, false,
-          false);
+      writerList = new EraseDisk3Writer[queueDepth];
+      for (int k = 0; k < queueDepth; k ++)
+      {
+        writerList[k] = new EraseDisk3Writer();
+        Thread writer = new Thread(writerList[k], ("writeThread" + k));
+        writer.setPriority(Thread.MIN_PRIORITY); // same as "eraseThread"
+        writer.start();
+      }
+      putOutput("Writing with " + queueDepth + " requests outstanding per file.");
     }
-
-    optionOneWrite.setEnabled(false); // too late to change this option
-    if ((cancelFlag == false) && optionOneWrite.isSelected())
+    dataGenerator = null;         // assume random data is re-used, no thread
+    if (FAST_RANDOM == false)     // always generate new random data?
     {
-      startEraser("Writing all ones (0xFF)...", false, 0xFF, false, false);
+      dataGenerator = new EraseDisk3Generator(BUFFER_SIZES[0]);
+      Thread filler = new Thread(dataGenerator, "generateThread");
+      filler.setPriority(Thread.MIN_PRIORITY); // same as "eraseThread"
+      filler.start();
     }
-
-    optionRandomPrompt.setEnabled(false); // too late to change these options
-    optionRandomRead.setEnabled(false);
-    optionRandomWrite.setEnabled(false);
-    if ((cancelFlag == false) && optionRandomWrite.isSelected())
+    flushWriter = null;           // assume no limit on unforced data
+    if (throttleBytes > 0)        // force data in the background?
     {
-      startEraser("Writing pseudo-random data...", true, 0x83,
-        optionRandomRead.isSelected(), optionRandomPrompt.isSelected());
+      flushWriter = new EraseDisk3Writer();
+      Thread flusher = new Thread(flushWriter, "flushThread");
+      flusher.setPriority(Thread.MIN_PRIORITY); // same as "eraseThread"
+      flusher.start();
     }
 
-    optionZeroWrite.setEnabled(false); // too late to change this option
-    if ((cancelFlag == false) && optionZeroWrite.isSelected())
+    /* With the "-c" option, we only verify files kept by an earlier session.
+    With the "-a" option, we only probe the capacity.  Both probing and erasing
+    write temporary files, and a manifest from an earlier session would no
+    longer describe them, so delete the manifest (if any) now. */
+
+    if (checkFlag == false)       // will we write temporary files?
+      new File(userFolder, MANIFEST_FILE_NAME).delete(); // ignore result
+    if (checkFlag)                // only verify kept files?
+      checkFiles();               // yes, from their manifest
+    else if (probeFlag)           // only probe for counterfeit capacity?
+      probeCapacity();            // yes, and delete files when done
+    else
     {
-      startEraser("Writing all zeros (0x00)...", false, 0x00, false, false);
-    }
+      /* Erase the disk one or more times, with an optional verify.  Don't
+      bother "verifying" data bytes that all have the same value.  You can, if
+      you want, but it's probably a waste of time. */
 
-    /* Tell the user that we are done.  With long delays while writing to the
-    disk, it's not so obvious when we are truly finished. */
+      optionCustomWrite.setEnabled(false); // too late to change this option
+      if (optionCustomWrite.isSelected())
+      {
+        /* Change this section for custom patterns.  You may have multiple
+        calls to startEraser().  Check <cancelFlag> before each call.  The
+        default 0x69 and 0x96 simply flip half the bits, for no good technical
+        reason. */
+
+        if (cancelFlag == false)
+          startEraser("Writing custom pattern 0x69...", false, 0x69, false,
+            false);
+
+        if (cancelFlag == false)
+          startEraser("Writing custom pattern 0x96...", false, 0x96, false,
+            false);
+      }
 
-    statusTimer.stop();           // stop updating our running status by timer
-    sleep(TIMER_DELAY);           // might be in middle of status update
-    doStatusTimer();              // one final update (may not be complete)
-    tabbedPane.setSelectedIndex(summaryPanelIndex); // switch to summary panel
-    if (cancelFlag == false)      // if the user didn't interrupt us
-    {
-      putOutput("");              // blank line
+      optionOneWrite.setEnabled(false); // too late to change this option
+      if ((cancelFlag == false) && optionOneWrite.isSelected())
+      {
+        startEraser("Writing all ones (0xFF)...", false, 0xFF, false, false);
+      }
+
+      optionRandomPrompt.setEnabled(false); // too late to change these options
+      optionRandomRead.setEnabled(false);
+      optionRandomWrite.setEnabled(false);
+      if ((cancelFlag == false) && optionRandomWrite.isSelected())
+      {
+        startEraser("Writing pseudo-random data...", true, 0x83,
+          optionRandomRead.isSelected(), optionRandomPrompt.isSelected());
+      }
+
+      optionZeroWrite.setEnabled(false); // too late to change this option
+      if ((cancelFlag == false) && optionZeroWrite.isSelected())
+      {
+        startEraser("Writing all zeros (0x00)...", false, 0x00, false, false);
+      }
+    }
+
+    /* Files rewritten in place are only deleted after the last pass.  With the
+    "-k" option, files from the last pass are kept instead, and described by a
+    manifest (or were already described, for "-c").  Wait for temporary files
+    from the last pass to be deleted. */
+
+    if ((keepManifest != null) && (cancelFlag == false) && saveManifest())
+      putOutput("Kept " + prettyPlural((keepCount + placeCount),
+        "temporary file") + " for a later verify, described by "
+        + MANIFEST_FILE_NAME + ".");
+    else if (checkFlag && keepFlag && (keepCount > 0)
+      && (cancelFlag == false))   // keep files verified by "-c" option?
+      putOutput("Kept " + prettyPlural(keepCount, "temporary file")
+        + " for another verify later.");
+    else if (deleteFlag && ((keepCount + placeCount) > 0)) // delete files?
+    {
+      fileDeleter = new EraseDisk3Delete(userFolder, (keepCount + placeCount));
+      fileDeleter.start(DELETE_THREADS); // runs as separate threads
+      if (checkFlag)              // manifest no longer describes any files
+        new File(userFolder, MANIFEST_FILE_NAME).delete(); // ignore result
+    }
+    keepCount = placeCount = 0;   // no more files kept or rewritten in place
+    keepManifest = null;
+    placeSizes = null;
+    if (fileDeleter != null)      // are files being deleted in background?
+    {
+      runFileAction = "Deleting"; // tag normally says if reading or writing
+      runFileName = null;         // no particular file name
+      finishDelete(false);        // wait and report results
+    }
+
+    /* Tell the user that we are done.  With long delays while writing to the
+    disk, it's not so obvious when we are truly finished. */
+
+    if (writerList != null)       // stop any worker threads for queued writes
+    {
+      for (int k = 0; k < writerList.length; k ++)
+        writerList[k].finish();
+      writerList = null;
+    }
+    if (flushWriter != null)      // stop worker thread for throttled writes
+    {
+      flushWriter.finish();
+      flushWriter = null;
+    }
+    if (dataGenerator != null)    // stop worker thread for random data
+    {
+      dataGenerator.finish();
+      dataGenerator = null;
+    }
+    statusTimer.stop();           // stop updating our running status by timer
+    sleep(TIMER_DELAY);           // might be in middle of status update
+    doStatusTimer();              // one final update (may not be complete)
+    tabbedPane.setSelectedIndex(summaryPanelIndex); // switch to summary panel
+    if (cancelFlag == false)      // if the user didn't interrupt us
+    {
+      putOutput("");              // blank line
       if (runTotalErrors != 0)    // bad news (if any) goes at the beginning
         putOutput("There were errors. See previous messages (above).");
-      long millis = System.currentTimeMillis() - clockJobStart + clockJobSaved;
+      long millis = clockMillis() - clockJobStart + clockJobSaved;
                                   // total milliseconds elapsed, all passes
       putOutput("Done in " + formatHours(millis) + " (" + formatClock(millis)
         + ").");                  // elapsed time and scaled units
@@ -2081,30 +3778,29 @@ public class EraseDisk3
     boolean verifyFlag,           // true if we read verify after writing
     boolean promptFlag)           // true if we prompt user before verify
   {
-    byte compareByte;             // one comparison value during read verify
+    long ceilingGuess;            // size of previous file that failed, or zero
     byte[] dataBuffer;            // byte buffer writing and comparing files
     int dataIndex;                // current byte or block in data buffer
     int dataLeft;                 // remaining read bytes at <dataIndex>
-    long fileBytesRead;           // bytes read from a file, or -1 for error
-    boolean fileCompareFail;      // true if any compare fails for one file
+    boolean failFlag;             // true if queued write fails for one file
     String fileName;              // name of current read/write file
     File fp;                      // File object to write, read, or delete
     int i;                        // index variable
-    FileInputStream inp;          // byte input stream for reading one file
     int numFiles;                 // number of files that we have created
     FileOutputStream out;         // byte output stream for writing one file
-    long passCorrectBytes;        // correct bytes for read verify (all files)
+    FileChannel outChannel;       // channel for <out>, positional writes
     long passTimeUsed;            // elapsed time in millis for read/write pass
-    boolean passVerifyFail;       // true if compare fails any bytes, any file
     long randomBase;              // start all random sequences from same base
+    boolean rewriteFlag;          // true if we rewrite files in place
     java.util.Random randomGen;   // fancy pseudo-random number generator
-    byte[] readBuffer;            // data bytes read from file during verify
-    long recentCorrect, recentErrors; // recent good, bad verify bytes one file
     long savedWriteBytes;         // total number of bytes expected read verify
     int sizeEntry;                // index of current entry in buffer sizes
+    long sizeGood;                // bytes written since buffer size changed
     int sizeLimit;                // first and assumed maximum buffer size
-    int thisFile;                 // current file number, up to <numFiles>
+    long sizeNeed;                // bytes needed before trying bigger buffer
+    long start;                   // clockNanos() before each step
     int thisSize;                 // current buffer size that we are using
+    ByteBuffer writeBuffer;       // data bytes for current channel write
 
     /* Begin by ending early if the user has cancelled. */
 
@@ -2132,29 +3828,43 @@ public class EraseDisk3
     putOutput("");                // blank line
     putOutput(description);       // copy description to output text area
 
-    /* Create and fill a buffer with data for writing files.  The same buffer
-    may be used later for comparing (verify), but not for reading.  We don't
-    need perfect pseudo-random numbers, so we do something faster: create a
-    buffer twice as big, fill with good random data, and later randomly index
-    blocks starting somewhere in the first half. */
+    /* With the "-k" option, files from the previous pass were kept in case it
+    was the last pass.  It wasn't, so delete those files now, in the same way
+    as at the end of a pass (see below). */
 
-    sizeLimit = BUFFER_SIZES[0];  // first size assumed to be largest
-    if (randomFlag == false)      // constant value for data bytes?
-    {
-      dataBuffer = new byte[sizeLimit]; // allocate buffer at maximum size
-      for (i = 0; i < sizeLimit; i ++)
-        dataBuffer[i] = (byte) fillByte; // use same value for entire buffer
-    }
-    else if (FAST_RANDOM)         // do we re-use old random numbers?
+    keepManifest = null;          // files from this pass aren't complete yet
+    if (keepCount > 0)            // were files kept from previous pass?
     {
-      dataBuffer = new byte[sizeLimit * 2]; // make twice as big as normal
-      randomGen.nextBytes(dataBuffer); // fill with random bytes to re-use
+      fileDeleter = new EraseDisk3Delete(userFolder, keepCount);
+      fileDeleter.start(DELETE_THREADS); // runs as separate threads
+      keepCount = 0;              // no files kept now
     }
-    else                          // always generate random numbers (slow)
+
+    /* With the "-y" option, pseudo-random data is an AES/CTR key stream.  Old
+    versions of Java don't have AES/CTR, so we use java.util.Random instead. */
+
+    sizeLimit = BUFFER_SIZES[0];  // first size assumed to be largest
+    dataCipher = null;            // assume java.util.Random, or constant data
+    if (randomFlag && cipherFlag) // AES/CTR key stream for pseudo-random?
     {
-      dataBuffer = new byte[sizeLimit]; // allocate buffer at maximum size
+      try
+      {
+        dataCipher = new EraseDisk3Cipher(sizeLimit);
+        putOutput("Pseudo-random data is an " + EraseDisk3Cipher.CIPHER_NAME
+          + " key stream.");
+      }
+      catch (java.security.GeneralSecurityException gse)
+      {
+        putOutput(EraseDisk3Cipher.CIPHER_NAME + " - " + gse.getMessage()
+          + " (using java.util.Random)");
+      }
     }
 
+    /* Create and fill a buffer with data for writing files.  The same buffer
+    may be used later for comparing (verify), but not for reading. */
+
+    dataBuffer = createBuffer(randomFlag, fillByte, sizeLimit, randomBase);
+
     /* Keep creating new files until the disk drive is full, or we reach our
     limit on the number of files.  Some file systems such as NTFS store very
     small files inside the file structure (around 728 bytes or less for NTFS).
@@ -2164,17 +3874,37 @@ public class EraseDisk3
 
     clockPassSaved = 0;           // no elapsed time before pause (prompt only
                                   // happens between passes)
-    clockPassStart = System.currentTimeMillis();
+    clockPassStart = clockMillis();
                                   // current starting time as system millis
     numFiles = 0;                 // no files created yet
     runFileAction = "Writing";    // tag saying if reading or writing
+    runPassCompareNanos = runPassCpuNanos = runPassDeleteNanos
+      = runPassGenerateNanos = runPassTransferNanos = 0; // no time used yet
+    runPassCpuStart = threadCpuNanos(); // CPU time for this thread, or -1
+    runPassForceMillis = 0;       // no time spent forcing data onto disk
+    runNiceBase = runNiceFactor = 0.0; // no best time, and no sleeping
+    runPaceBytes = -1;            // start pacing with first write
     runFileBytesDone = runPassBytesDone = runPassPrevBytes = 0;
     runFileName = null;           // don't have a file name yet
     runPassAction = "write";
     runPassPrevRate = -1.0;       // no previous bytes per second
-
-    while ((cancelFlag == false) && (numFiles < userFileCount)
-      && (runPassBytesDone < userPassSize)) // outer <while> loop
+    erasePanelZones.clearZones(runPassAction, runPassEstMax);
+                                  // estimate may be -1 for first pass
+
+    /* With the "-i" option, only the first pass creates files.  Later passes
+    rewrite the same files in place, with the same sizes. */
+
+    ceilingGuess = 0;             // no files have failed yet
+    rewriteFlag = inPlaceFlag && (placeCount > 0); // rewrite in place?
+    if (rewriteFlag)              // yes, files already exist
+      numFiles = rewriteFiles(randomFlag, dataBuffer, sizeLimit, randomGen,
+        randomBase);
+    else if (inPlaceFlag)         // first pass, remember file sizes
+      placeSizes = new long[userFileCount + 1]; // numbers start from one
+
+    while ((rewriteFlag == false) && (cancelFlag == false)
+      && (numFiles < userFileCount) && (runPassBytesDone < userPassSize))
+                                  // outer <while> loop
     {
       if (pauseFlag) doPauseCheck(); // wait if user is busy
 
@@ -2182,6 +3912,12 @@ public class EraseDisk3
 
       numFiles ++;                // one more temporary file will be created
       fileName = createFilename(numFiles); // formatted name with file number
+      if (fileDeleter != null)    // is previous pass still deleting files?
+      {
+        start = clockNanos();     // time waiting for deletes
+        fileDeleter.waitFile(numFiles); // same name must be deleted first
+        runPassDeleteNanos += clockNanos() - start;
+      }
       fp = new File(userFolder, fileName); // tell Java we want this file
       try { out = new FileOutputStream(fp); } // we do our own buffering
       catch (FileNotFoundException fnfe) // the only documented exception
@@ -2193,6 +3929,7 @@ public class EraseDisk3
       }
       if (debugFlag)              // does user want details?
         putOutput(fileName + " - temporary file created");
+      outChannel = out.getChannel(); // shares file position with <out>
       runFileName = fileName;     // save name for next update by timer
 
       /* Keep writing to the file until it's full.  The first few errors will
@@ -2204,25 +3941,90 @@ public class EraseDisk3
       randomGen.setSeed(randomBase + numFiles);
                                   // start each file with a known random seed
                                   // ... that varies slightly per file
+      if (dataCipher != null)     // key for AES/CTR key stream, if used
+        dataCipher.restart(randomBase + numFiles);
+      else if (randomFlag && (dataGenerator != null)) // same sequence, ahead
+        dataGenerator.restart(randomBase + numFiles); // ... of time
       runFileBytesDone = 0;       // no bytes written yet
+      runFileForceMillis = 0;     // no time spent forcing data onto disk
+      runFileForceNext = forceInterval; // first periodic forced write, if any
+      runFileThrottleDone = 0;    // no background forced writes yet
       sizeEntry = 0;              // index of first entry in buffer size list
+      sizeGood = sizeNeed = 0;    // no smaller buffers yet, so nothing needed
       thisSize = BUFFER_SIZES[sizeEntry];
                                   // value of first entry in size list
       if (debugFlag)              // does user want details?
         putOutput(fileName + " - data buffer size is "
           + formatByteSize(thisSize));
 
+      /* With queued writes, full-size buffers go to worker threads until the
+      file is full or a write fails.  The remainder is done below, in order and
+      with smaller buffers, exactly as for synchronous writes. */
+
+      if (writerList != null)     // more than one write request at a time?
+      {
+        try
+        {
+          while ((failFlag = writeQueued(outChannel, fileName, randomFlag,
+            dataBuffer, sizeLimit, randomGen, (randomBase + numFiles)))
+            && waitDelete())
+          {
+            /* Space was freed by deleting files from the previous pass, so
+            keep writing full-size buffers. */
+          }
+          if (failFlag)           // did a write fail, disk may be full?
+          {
+            sizeNeed = Math.max((sizeNeed * 2), BUFFER_SIZES[sizeEntry]);
+                                  // must write this much before trying again
+            sizeEntry ++;         // index of next entry in buffer size list
+            if (sizeEntry < BUFFER_SIZES.length) // if there are more sizes
+            {
+              thisSize = BUFFER_SIZES[sizeEntry]; // value of next entry
+              if (debugFlag)      // does user want details?
+                putOutput(fileName + " - buffer size reduced to "
+                  + formatByteSize(thisSize));
+            }
+          }
+        }
+        catch (IOException ioe)   // can't truncate or position the file
+        {
+          putOutput(fileName + " - " + ioe.getMessage());
+          runTotalErrors ++;      // one more error detected
+          sizeEntry = BUFFER_SIZES.length; // don't write any more to file
+        }
+      }
+
       while ((cancelFlag == false) && (runFileBytesDone < userFileSize)
-        && (runPassBytesDone < userPassSize)) // inner <while> loop
+        && (runPassBytesDone < userPassSize)
+        && (sizeEntry < BUFFER_SIZES.length)) // inner <while> loop
       {
         if (pauseFlag) doPauseCheck(); // wait if user is busy
 
+        if ((fileCeiling > 0) && ((runFileBytesDone + thisSize) > fileCeiling))
+        {
+          /* We know the maximum file size, so use smaller buffers to stop
+          exactly there, instead of waiting for errors. */
+
+          while ((sizeEntry < BUFFER_SIZES.length)
+            && ((runFileBytesDone + BUFFER_SIZES[sizeEntry]) > fileCeiling))
+            sizeEntry ++;         // index of next entry in buffer size list
+          if (sizeEntry >= BUFFER_SIZES.length) // stop if no more sizes
+            break;                // exit early from inner <while> loop
+          thisSize = BUFFER_SIZES[sizeEntry]; // value of next entry in list
+        }
+
         if (dataLeft <= 0)        // need to find next block of data?
         {
+          start = clockNanos();   // time for generating data
           if (randomFlag == false) // constant value for data bytes?
           {
             dataIndex = 0;        // always at beginning for constant data
           }
+          else if (dataCipher != null) // AES/CTR key stream at this offset?
+          {
+            dataCipher.fillBlock(dataBuffer, sizeLimit, runFileBytesDone);
+            dataIndex = 0;        // start from beginning of data buffer
+          }
           else if (FAST_RANDOM)   // do we re-use old random numbers?
           {
             dataIndex = randomGen.nextInt(sizeLimit);
@@ -2230,23 +4032,45 @@ public class EraseDisk3
           }
           else                    // always generate random numbers (slow)
           {
-            randomGen.nextBytes(dataBuffer); // fill with new random bytes
+            dataBuffer = dataGenerator.swapBuffer(dataBuffer);
+                                  // new random bytes, filled ahead of time
             dataIndex = 0;        // start from beginning of data buffer
           }
           dataLeft = sizeLimit;   // how many bytes in each block (piece)
+          runPassGenerateNanos += clockNanos() - start;
         }
 
+        start = clockNanos();     // time for write calls, even if they fail
         try                       // can we write some more to the file?
         {
-          out.write(dataBuffer, dataIndex, thisSize);
-                                  // try to write a block of data bytes
+          writeBuffer = ByteBuffer.wrap(dataBuffer, dataIndex, thisSize);
+          while (writeBuffer.hasRemaining()) // channel may write less
+            outChannel.write(writeBuffer); // interruptible by "Cancel"
           if (thisSize < sizeLimit) // once we start using smaller sizes
             out.flush();          // force a disk flush after each write
+          runPassTransferNanos += clockNanos() - start;
         }
         catch (IOException ioe)   // assume all errors are "disk may be full"
         {
+          runPassTransferNanos += clockNanos() - start;
           if (debugFlag)          // does user want details?
             putOutput(fileName + " - " + ioe.getMessage());
+
+          /* Part of the buffer may have been written before the error.  Go
+          back to the end of the last complete write. */
+
+          try
+          {
+            outChannel.truncate(runFileBytesDone);
+            outChannel.position(runFileBytesDone);
+          }
+          catch (IOException ioe2) { /* ignore errors */ }
+
+          if (waitDelete())       // if previous pass was still deleting files
+            continue;             // space was freed, so try again, same size
+          sizeGood = 0;           // nothing written yet with smaller buffer
+          sizeNeed = Math.max((sizeNeed * 2), thisSize);
+                                  // must write this much before trying again
           sizeEntry ++;           // index of next entry in buffer size list
           if (sizeEntry >= BUFFER_SIZES.length) // stop if no more sizes
             break;                // exit early from inner <while> loop
@@ -2264,41 +4088,121 @@ public class EraseDisk3
         runFileBytesDone += thisSize; // add to bytes done for this file
         runPassBytesDone += thisSize; // bytes done all files, this pass
         runTotalBytesDone += thisSize; // bytes all passes, all data types
+
+        /* A failed write doesn't always mean the disk is full.  Some file
+        systems refuse a big write when there is still room for many small
+        writes, and the final megabytes crawl along with our smallest buffer.
+        Once we have written as much as the failed size with smaller buffers,
+        try the next bigger size again.  Each failure doubles the amount that
+        must be written before the next try, so a disk that really is full
+        costs almost nothing extra.  The bigger size must fit evenly in what
+        remains of the current block of data, and below any maximum file size
+        that we know about. */
+
+        if ((sizeEntry > 0) && ((sizeGood += thisSize) >= sizeNeed)
+          && ((dataLeft % BUFFER_SIZES[sizeEntry - 1]) == 0)
+          && ((fileCeiling == 0) || ((runFileBytesDone
+          + BUFFER_SIZES[sizeEntry - 1]) <= fileCeiling)))
+        {
+          sizeEntry --;           // index of previous entry in buffer sizes
+          sizeGood = 0;           // nothing written yet with bigger buffer
+          thisSize = BUFFER_SIZES[sizeEntry]; // value of previous entry
+          if (debugFlag)          // does user want details?
+            putOutput(fileName + " - buffer size increased to "
+              + formatByteSize(thisSize));
+        }
+        if ((forceInterval > 0) && (runFileBytesDone >= runFileForceNext))
+          forceFile(outChannel, fileName); // periodic forced write
+        if ((throttleBytes > 0) && ((runFileBytesDone - runFileThrottleDone)
+          >= (throttleBytes / 2)))
+          throttleFile(outChannel, fileName); // background forced write
+        paceWrite(thisSize);      // limit our share of the disk
       }
+      if (throttleBytes > 0)      // must finish before closing the file
+        throttleWait(fileName);
+
+      /* Queued writes may complete in any order, so always force those files
+      onto the disk before we call them done. */
+
+      if ((cancelFlag == false) && (forceFlag || (writerList != null)))
+        forceFile(outChannel, fileName);
       try { out.close(); } catch (IOException ioe) { /* ignore errors */ }
+      if (placeSizes != null)     // remember size to rewrite in place
+        placeSizes[numFiles] = runFileBytesDone;
 
       if (cancelFlag == false)    // if the user didn't interrupt us
       {
         putOutput(fileName + " - " + formatComma.format(runFileBytesDone)
-          + " bytes written");
+          + " bytes written" + ((forceFlag || (throttleBytes > 0)
+          || (writerList != null)) ? (", "
+          + formatHours(runFileForceMillis) + " to force onto disk") : ""));
         if (runFileBytesDone < sizeLimit) // disk full if less than one buffer
           break;                  // exit early from outer <while> loop
         if (runFileEstMax < 0)    // have an estimate for maximum file size?
           runFileEstMax = runFileBytesDone; // no, adjust our expectations
       }
+
+      /* Some file systems have a maximum file size, such as 4 GB for FAT32.
+      Every file reaches that size, fails, and tries smaller buffers until the
+      smallest buffer also fails.  When two files in a row end this way with
+      the same size, assume that size is the maximum, and stop later files at
+      that size without errors.  This lasts for all passes.  The disk being
+      full still works as before. */
+
+      if ((cancelFlag == false) && (fileCeiling == 0)
+        && (sizeEntry >= BUFFER_SIZES.length) && (runFileBytesDone >= sizeLimit))
+      {
+        if (runFileBytesDone == ceilingGuess) // same size as previous file?
+        {
+          fileCeiling = runFileBytesDone; // yes, assume maximum file size
+          putOutput("Maximum file size appears to be "
+            + formatComma.format(fileCeiling) + " bytes.");
+        }
+        else                      // no, remember size for next file
+          ceilingGuess = runFileBytesDone;
+      }
     }
 
-    /* Summary after writing all files. */
+    /* Summary after writing all files.  Files from the previous pass should
+    be deleted by now, if they aren't already. */
+
+    if (fileDeleter != null)      // are files being deleted in background?
+    {
+      start = clockNanos();       // time waiting for deletes
+      finishDelete(true);         // wait and report results
+      runPassDeleteNanos += clockNanos() - start;
+    }
+    if (inPlaceFlag && (rewriteFlag == false)) // first pass of "-i" option?
+      placeCount = numFiles;      // later passes rewrite these files
 
     if (cancelFlag == false)      // if the user didn't interrupt us
     {
-      if ((numFiles >= userFileCount) || (runPassBytesDone >= userPassSize))
+      if ((rewriteFlag == false) && ((numFiles >= userFileCount)
+        || (runPassBytesDone >= userPassSize)))
       {                           // normally, we never reach these maximums
         putOutput("Temporary file limit reached; erase may not be complete.");
 //      runTotalErrors ++;        // one more error detected
       }
-      putOutput("Created " + prettyPlural(numFiles, "temporary file")
-        + " with " + formatComma.format(runPassBytesDone) + " bytes.");
+      putOutput((rewriteFlag ? "Rewrote " : "Created ")
+        + prettyPlural(numFiles, "temporary file") + " with "
+        + formatComma.format(runPassBytesDone) + " bytes.");
       if ((runPassEstMax < 0) && (runPassBytesDone > 0)) // have an estimate?
         runPassEstMax = runPassBytesDone; // no, adjust our expectations
 
-      passTimeUsed = System.currentTimeMillis() - clockPassStart
+      passTimeUsed = clockMillis() - clockPassStart
         + clockPassSaved;         // elapsed time for this write pass
       if (passTimeUsed > SMALL_MILLIS) // avoid division close to zero time
         putOutput("Average write speed was " + formatSpeed((double)
           runPassBytesDone * 1000.0 / (double) passTimeUsed) + " over "
           + formatHours(passTimeUsed) + ".");
+      if ((passTimeUsed > SMALL_MILLIS) && (forceFlag || (throttleBytes > 0)
+        || (writerList != null)))
+        putOutput("Forcing data onto the disk took "
+          + formatHours(runPassForceMillis) + " of that time.");
+      if (passTimeUsed > SMALL_MILLIS) // avoid division close to zero time
+        putPassTimes(false, passTimeUsed, runPassBytesDone);
     }
+    saveZones();                  // throughput profile, even if cancelled
     savedWriteBytes = runPassBytesDone; // save for later read verify
 
     /* Read verify the written data, if this option was chosen by the user.
@@ -2317,230 +4221,134 @@ public class EraseDisk3
 //    if (pauseFlag) doPauseCheck(); // wait if user is busy
 
       /* Prompt the user to eject and reinsert any removable media such as a
-      floppy disk or USB flash drive.  We save and restore both timers (job,
-      pass) so they can synchronize to zero while waiting for the user. */
+      floppy disk or USB flash drive. */
 
       if (promptFlag)             // don't really know if media is removable
-      {
-        long stopClock = System.currentTimeMillis(); // time to begin pause
-        long hideJob = stopClock - clockJobStart + clockJobSaved;
-        long hidePass = stopClock - clockPassStart + clockPassSaved;
-//      clockJobSaved = clockPassSaved = 0; // start pause timer from zero
-//      clockJobStart = clockPassStart = stopClock;
-
-        JOptionPane.showMessageDialog(mainFrame,
-          ("If your disk is on removable media, then:\n"
-          + "1. Remove (eject) the disk normally;\n"
-          + "2. Reinsert the disk; and\n"
-          + "3. Click the OK button here."));
-
-        clockJobSaved = hideJob;  // bring back previous elapsed time
-        clockPassSaved = hidePass;
-        clockJobStart = clockPassStart = System.currentTimeMillis();
-                                  // starting time after pause
-      }
-      putOutput("Reading file data to verify...");
-
-      /* Read all files until their end-of-file.  We don't match file sizes to
-      the files we wrote above, only the totals. */
+        promptReinsert();         // wait for user to click OK
+      verifyFiles(numFiles, randomFlag, fillByte, dataBuffer, sizeLimit,
+        randomBase, savedWriteBytes); // same data as we wrote
+    }
 
-      clockPassSaved = 0;         // no elapsed time before pause (prompt only
-                                  // happens between passes)
-      clockPassStart = System.currentTimeMillis();
-                                  // current starting time as system millis
-      compareByte = (byte) fillByte; // use same value except for random data
-      passCorrectBytes = 0;       // no correct bytes yet (all files)
-      passVerifyFail = false;     // no comparison failures yet on read data
-      readBuffer = new byte[sizeLimit]; // allocate buffer at maximum size
-      runFileAction = "Reading";  // tag saying if reading or writing
-      runFileBytesDone = runPassBytesDone = runPassPrevBytes = 0;
-      runFileName = null;         // don't have a file name yet
-      runPassAction = "read";
-      runPassPrevRate = -1.0;     // no previous bytes per second
-      thisFile = 1;               // start with the first file we created
-
-      while ((cancelFlag == false) && (thisFile <= numFiles))
-                                  // outer <while> loop
+    /* Delete our temporary files, which can take several seconds each for very
+    large files.  This is done by background threads (see EraseDisk3Delete),
+    while the next pass, if any, starts writing.  Each file of the next pass
+    waits for the same file name to be deleted first.  Results are reported by
+    finishDelete(), either after the next pass writes its files, or at the end
+    of startErase().  We ignore most errors.  The "Cancel" button may be the
+    reason why we are here, and may also clear <deleteFlag> while we are
+    deleting.
+
+    With the "-k" option, we don't know yet if this is the last pass, so we
+    describe the files for a manifest, and keep them until the next pass (if
+    any) starts. */
+
+    if (keepFlag && (cancelFlag == false) && (numFiles > 0))
+    {                             // should we keep our temporary files?
+      keepManifest = new java.util.Properties();
+      keepManifest.setProperty("cipherFlag", String.valueOf(dataCipher
+        != null));
+      keepManifest.setProperty("description", description);
+      keepManifest.setProperty("fastRandom", String.valueOf(FAST_RANDOM));
+      keepManifest.setProperty("fillByte", String.valueOf(fillByte));
+      keepManifest.setProperty("numFiles", String.valueOf(numFiles));
+      keepManifest.setProperty("randomBase", String.valueOf(randomBase));
+      keepManifest.setProperty("randomFlag", String.valueOf(randomFlag));
+      keepManifest.setProperty("sizeLimit", String.valueOf(sizeLimit));
+      for (i = 1; i <= numFiles; i ++) // size of each file, by name
       {
-        if (pauseFlag) doPauseCheck(); // wait if user is busy
-
-        /* Try to open a previously created temporary file. */
-
-        fileName = createFilename(thisFile); // formatted name with file number
-        fp = new File(userFolder, fileName); // tell Java we want this file
-        try { inp = new FileInputStream(fp); } // we do our own buffering
-        catch (FileNotFoundException fnfe) // the only documented exception
-        {
-          putOutput(fileName + " - can't read temporary file");
-          runTotalErrors ++;      // one more error detected
-          break;                  // exit early from outer <while> loop
-        }
-        if (debugFlag)            // does user want details?
-          putOutput(fileName + " - reading temporary file");
-        runFileName = fileName;   // save name for next update by timer
-
-        /* Keep reading from the file until end-of-file or an I/O error. */
-
-        fileBytesRead = 0;        // bytes read from a file, or -1 for error
-        fileCompareFail = false;  // true if any compare fails for one file
-        randomGen.setSeed(randomBase + thisFile);
-                                  // start each file with a known random seed
-                                  // ... that varies slightly per file
-        recentCorrect = recentErrors = 0; // local number of good and bad bytes
-        runFileBytesDone = 0;     // no bytes read yet
-
-        while ((cancelFlag == false) && (fileBytesRead >= 0))
-                                  // inner <while> loop
-        {
-          if (pauseFlag) doPauseCheck(); // wait if user is busy
+        fileName = createFilename(i); // formatted name with number
+        keepManifest.setProperty(fileName, String.valueOf(new File(userFolder,
+          fileName).length()));
+      }
+      if (inPlaceFlag == false)   // files rewritten in place are counted
+        keepCount = numFiles;     // ... by <placeCount>
+    }
+    else if (deleteFlag && (numFiles > 0) && (inPlaceFlag == false))
+    {                             // should we delete our temporary files?
+      fileDeleter = new EraseDisk3Delete(userFolder, numFiles);
+      fileDeleter.start(DELETE_THREADS); // runs as separate threads
+    }
 
-          try { thisSize = inp.read(readBuffer); } // try to read from file
-          catch (IOException ioe) // all errors are bad news when reading
-          {
-            putOutput(fileName + " - " + ioe.getMessage());
-            fileBytesRead = -1;   // mark number of bytes read as invalid
-            runTotalErrors ++;    // one more error detected
-            break;                // exit early from inner <while> loop
-          }
-          if (thisSize <= 0)      // stop if we reached the end-of-file
-            break;                // exit early from inner <while> loop
+    /* Give back the data buffer for the next pass.  Constant data stays cached
+    in the pool.  New random bytes (not FAST_RANDOM) were swapped with buffers
+    that belong to the generator, and our buffer may now be one of those. */
 
-          /* Compare data read with the correct data.  There is an assumption
-          in this code that the Java run-time will return a full read buffer,
-          except for the last read at the end of the file.  This only affects
-          pseudo-random data. */
+    if (randomFlag && ((dataCipher != null) || (dataGenerator == null)))
+      bufferPool.giveBytes(dataBuffer);
+  } // end of startEraser() method
 
-          if (randomFlag == false) // constant value for data bytes?
-          {
-            dataIndex = 0;        // not used, just to keep compiler happy
-          }
-          else if (FAST_RANDOM)   // do we re-use old random numbers?
-          {
-            dataIndex = randomGen.nextInt(sizeLimit);
-                                  // somewhat random starting index
-          }
-          else                    // always generate random numbers (slow)
-          {
-            randomGen.nextBytes(dataBuffer); // fill with new random bytes
-            dataIndex = 0;        // start from beginning of data buffer
-          }
 
-          for (i = 0; i < thisSize; i ++) // for all input bytes
-          {
-            /* Most read verify time is spent inside this one <for> statement,
-            so keep it as simple as possible for correct data. */
+/*
+  threadCpuNanos() method
 
-            if (randomFlag)       // are we reading a pseudo-random sequence?
-              compareByte = dataBuffer[dataIndex ++]; // get random byte
+  Return the CPU time in nanoseconds used by the current thread, from the
+  ThreadMXBean in Java 5.0 or later, called by reflection like clockMillis().
+  Return -1 if CPU time isn't available.
+*/
+  static long threadCpuNanos()
+  {
+    if (cpuTimeMethod != null)    // do we have a CPU clock for threads?
+    {
+      try { return(((Long) cpuTimeMethod.invoke(cpuTimeBean, new Object[0]))
+        .longValue()); }          // -1 if disabled in this run-time
+      catch (Exception e) { cpuTimeMethod = null; } // not supported
+    }
+    return(-1);                   // older Java, or reflection failed
+  }
 
-            if (readBuffer[i] == compareByte) // compare read with expected
-            {
-              passCorrectBytes ++; // increase total number of correct bytes
-              recentCorrect ++;   // one more consecutively correct byte
-              if (recentCorrect >= ERROR_RESET) // enough to forgive an error?
-              {
-                recentCorrect = 0; // clear local counter for number correct
-                if (recentErrors > 0) // are there any recent errors?
-                  recentErrors --; // yes, reduce local error count by one
-              }
-            }
-            else                  // what we read is not what we wanted
-            {
-              putOutput(fileName + " - byte at "
-                + formatHexLong(fileBytesRead + i) + " is "
-                + formatHexByte(readBuffer[i]) + " but should be "
-                + formatHexByte(compareByte));
-              fileCompareFail = true; // comparison has failed for this file
-              passVerifyFail = true; // at least one failure to compare data
-              recentCorrect = 0;  // clear counter for local number correct
-              recentErrors ++;    // increase local error count by one
-              runTotalErrors ++;  // one more error detected
-              if (recentErrors >= ERROR_LIMIT) // too many errors too quickly?
-              {
-                putOutput(fileName + " - too many errors, stopping after "
-                  + formatComma.format(fileBytesRead + i + 1) + " bytes");
-                fileBytesRead = -1; // mark number of bytes read as invalid
-                break;            // exit early from <for> loop
-              }
-            }
-          }
-          if (fileBytesRead < 0)  // did something go wrong with comparison?
-            break;                // exit early from inner <while> loop
-          fileBytesRead += thisSize; // comparison done, add to local total
-          runFileBytesDone += thisSize; // add to bytes done for this file
-          runPassBytesDone += thisSize; // bytes done all files, this pass
-          runTotalBytesDone += thisSize; // bytes all passes, all data types
-        }
-        try { inp.close(); } catch (IOException ioe) { /* ignore errors */ }
 
-        if ((cancelFlag == false) && (fileBytesRead >= 0)
-          && (fileCompareFail == false))
-        {
-          putOutput(fileName + " - " + formatComma.format(fileBytesRead)
-            + " bytes correct");
-        }
-        thisFile ++;              // now do the next temporary file
-      }
+/*
+  throttleFile() method
+
+  Limit how much written data for one file is waiting in the system cache, by
+  forcing data onto the disk with a background thread.  We are called each
+  time half of the limit has been written.  If the previous background force
+  hasn't finished, then we wait for it, which slows us down to the speed of the
+  device.  The time spent waiting is added to the time for forcing data onto
+  the disk.
+*/
+  static void throttleFile(FileChannel channel, String fileName)
+  {
+    throttleWait(fileName);       // wait for previous background force
+    flushWriter.startForce(channel); // and then start another one
+    runFileThrottleDone = runFileBytesDone; // written but maybe not forced
+  }
 
-      /* Summary after reading all files. */
 
-      if (cancelFlag == false)    // if the user didn't interrupt us
-      {
-        if ((passCorrectBytes == savedWriteBytes) && (passVerifyFail == false))
-        {
-          /* If there were no errors, then the following variables all have the
-          same value: passCorrectBytes, runPassBytesDone, savedWriteBytes. */
+/*
+  throttleWait() method
 
-          putOutput("Verified " + prettyPlural(numFiles, "temporary file")
-            + " with " + formatComma.format(runPassBytesDone) + " bytes.");
-        }
-        else                      // we didn't read what we previously wrote
-        {
-          putOutput("Verify failed with " + formatComma.format(savedWriteBytes)
-            + " bytes written but only " + formatComma.format(passCorrectBytes)
-            + " bytes correct.");
-        }
-        passTimeUsed = System.currentTimeMillis() - clockPassStart
-          + clockPassSaved;       // elapsed time for this write pass
-        if (passTimeUsed > SMALL_MILLIS) // avoid division close to zero time
-          putOutput("Average read speed was " + formatSpeed((double)
-            runPassBytesDone * 1000.0 / (double) passTimeUsed) + " over "
-            + formatHours(passTimeUsed) + ".");
-      }
+  Wait for a background force to finish, if any.  This must be done before a
+  temporary file is closed.
+*/
+  static void throttleWait(String fileName)
+  {
+    long start = clockMillis(); // starting time for this wait
+    IOException ioe = flushWriter.waitDone(); // wait, get exception or null
+    if (ioe != null)              // did the background force fail?
+    {
+      putOutput(fileName + " - " + ioe.getMessage());
+      runTotalErrors ++;          // one more error detected
     }
+    long millis = clockMillis() - start; // time for this wait
+    runFileForceMillis += millis; // add to time for this file
+    runPassForceMillis += millis; // add to time for this pass
+  }
 
-    /* Delete our temporary files, which can take several seconds each for very
-    large files.  We ignore most errors.  The "Cancel" button may be the reason
-    why we are here, and may also clear <deleteFlag> while we are deleting. */
 
-    if (deleteFlag && (numFiles > 0)) // should we delete our temporary files?
-    {
-      runFileAction = "Deleting"; // tag normally says if reading or writing
-      runFileName = null;         // don't have a file name yet
-      thisFile = 0;               // number of files successfully deleted
-      for (i = 1; i <= numFiles; i ++) // for each file that we created
-      {
-        if (pauseFlag) doPauseCheck(); // wait if user is busy
-        if (deleteFlag == false) break; // flag can change by "Cancel" button
+/*
+  usableSpace() method
 
-        fileName = createFilename(i); // formatted name with file number
-        fp = new File(userFolder, fileName); // tell Java we want this file
-        runFileName = fileName;   // save name for next update by timer
-        if (fp.delete())          // try to delete this file
-        {
-          thisFile ++;            // one more file deleted
-          if (debugFlag)          // does user want details?
-            putOutput(fileName + " - temporary file deleted");
-        }
-        else                      // something went wrong
-        {
-          putOutput(fileName + " - failed to delete file");
-          runTotalErrors ++;      // one more error detected
-        }
-      }
-      putOutput("Deleted " + prettyPlural(thisFile, "temporary file") + ".");
-    }
-  } // end of startEraser() method
+  Return the number of free bytes that we can use in a folder, or -1 if not
+  known.  File.getUsableSpace() was added in Java 6, so we call it by
+  reflection.
+*/
+  static long usableSpace(File folder)
+  {
+    try { return(((Long) File.class.getMethod("getUsableSpace", new Class[0])
+      .invoke(folder, new Object[0])).longValue()); }
+    catch (Exception e) { return(-1); } // not found before Java 6
+  }
 
 
 /*
@@ -2615,178 +4423,2361 @@ public class EraseDisk3
     }
   } // end of userButton() method
 
-} // end of EraseDisk3 class
-
-// ------------------------------------------------------------------------- //
 
 /*
-  EraseDisk3Grid class
-
-  This class draws a graph or grid of previous data transfer rates as a simple
-  bar graph with vertical bars rising from the bottom.
-
-  Almost no Java objects are created or disposed of in this class, making it
-  very memory efficient.  A earlier version used a <Vector> of <Double> objects
-  to store the data history.  It was slower and more awkward than the current
-  circular buffer (array), because a <Vector> requires constant pruning, which
-  must be coordinated with the painting, but can't rely on the painting, since
-  a program can run while its paint method isn't being called, for example,
-  when the program window is minimized.  (Yes, a deliberate run-on sentence.)
+  userMouse() method
 
-  This class as implemented does not protect its instance variables.
+  This method is called by our mouse listener mouseClicked() to process clicks
+  on panels that aren't buttons, in the context of the main EraseDisk3 class.
 */
+  static void userMouse(MouseEvent event)
+  {
+    Object source = event.getSource(); // where the event came from
+    if (source == erasePanelGrid) // bar graph on "Erase" tab
+    {
+      erasePanelGrid.toggleZoom(); // switch recent seconds or whole job
+    }
+    else                          // fault in program logic, not by user
+    {
+      System.err.println("Error in userMouse(): unknown MouseEvent: "
+        + event);                 // should never happen, so write on console
+    }
+  } // end of userMouse() method
 
-class EraseDisk3Grid extends JPanel
-{
-  /* constants */
-
-  static final int DATA_SIZE = 512; // maximum size of data in history array
-                                  // ... and slightly faster if power of two
-  static final int GAP_DEFAULT = 3; // default pixel spacing between bars
-  static final long serialVersionUID = 0;
-                                  // not used, just to keep compiler happy
-  static final int WIDTH_DEFAULT = 10; // default pixel width of each bar
 
-  /* instance variables */
+/*
+  verifyFiles() method
 
-  Color barColor;                 // use same color from Java look-and-feel
-  int barGap;                     // pixels between bars in graph
-  int barWidth;                   // width of vertical bars in pixels
-  int dataCount;                  // number of data values in history array
-  double[] dataList;              // history of data values, circular buffer
-  int dataStart;                  // index of first or oldest data value
-  double maxFound;                // maximum data value found recently
+  Read verify temporary files that were written with known data: either right
+  after writing, as part of a pass in startEraser(), or in a later session
+  from the manifest saved by the "-k" option.  Results are added to the global
+  status counters, and a summary is put in the output text.
+*/
+  static void verifyFiles(
+    int numFiles,                 // number of temporary files to read
+    boolean randomFlag,           // true if using pseudo-random sequence
+    int fillByte,                 // 0x00 to 0xFF data, ignored if random
+    byte[] dataBuffer,            // data bytes for comparing, maybe shared
+    int sizeLimit,                // first and assumed maximum buffer size
+    long randomBase,              // base for all random number sequences
+    long savedWriteBytes)         // total number of bytes expected
+  {
+    String fileName;              // name of current file
+    long mapBase;                 // offset of next file in verify map
+    StringBuffer mapText;         // CSV lines for verify map, or null
+    long passBlocksBad, passBlocksRead, passBlocksTotal;
+                                  // blocks for read verify (all files)
+    long passCorrectBytes;        // correct bytes for read verify (all files)
+    long passEstMax;              // saved <runPassEstMax> while sampling
+    long passTimeUsed;            // elapsed time in millis for read pass
+    boolean passVerifyFail;       // true if compare fails any bytes, any file
+    int startFile;                // next file number for read verify
+    boolean stopFlag;             // true if read verify should stop early
+    int thisFile;                 // current file number, up to <numFiles>
+    EraseDisk3Verify verifier;    // read verify for one file
+    EraseDisk3Verify[] verifyList; // read verify for files in progress
 
-  /* class constructor */
+    putOutput("Reading file data to verify...");
 
-  public EraseDisk3Grid(int width, int gap)
-  {
-    super();                      // initialize our superclass first (JPanel)
+    /* Read all files until their end-of-file.  We don't match file sizes to
+    the files we wrote above, only the totals. */
+
+    clockPassSaved = 0;           // no elapsed time before pause (prompt only
+                                  // happens between passes)
+    clockPassStart = clockMillis();
+                                  // current starting time as system millis
+    passBlocksBad = passBlocksRead = passBlocksTotal = 0; // no blocks yet
+    passCorrectBytes = 0;         // no correct bytes yet (all files)
+    passEstMax = runPassEstMax;   // restored after sampling
+    runPassCompareNanos = runPassCpuNanos = runPassDeleteNanos
+      = runPassGenerateNanos = runPassTransferNanos = 0; // no time used yet
+    runPassCpuStart = threadCpuNanos(); // CPU time for this thread, or -1
+    if (samplePercent > 0)        // only reading some blocks?
+      runPassEstMax = (long) (savedWriteBytes * samplePercent / 100.0);
+                                  // expected bytes read, for progress bar
+    passVerifyFail = false;       // no comparison failures yet on read data
+    runFileAction = "Reading";    // tag saying if reading or writing
+    runFileBytesDone = runPassBytesDone = runPassPrevBytes = 0;
+    runFileName = null;           // don't have a file name yet
+    runPassAction = "read";
+    runPassPrevRate = -1.0;       // no previous bytes per second
+    erasePanelZones.clearZones(runPassAction, runPassEstMax);
+
+    /* Each file is verified by an EraseDisk3Verify object.  With more than
+    one verify thread, several files are read at the same time, but results
+    are reported in file order: we always wait for the oldest file first.
+    Files that finish early keep their output until then.  With only one
+    verify thread, each file is verified here (on this thread) and messages
+    appear as soon as they are found. */
+
+    verifyList = new EraseDisk3Verify[verifyThreads]; // files in progress
+    startFile = thisFile = 1;     // start with the first file we created
+    stopFlag = false;             // no reason to stop early yet
+    erasePanelMap.clearMap(savedWriteBytes); // all files, this pass
+    mapBase = 0;                  // first file starts the map
+    mapText = mapFileFlag ? new StringBuffer() : null; // CSV lines
+    if (mapText != null) mapText.append("file,start,end,result\n");
+
+    while (thisFile < startFile || ((cancelFlag == false)
+      && (stopFlag == false) && (thisFile <= numFiles)))
+                                  // outer <while> loop
+    {
+      if (pauseFlag) doPauseCheck(); // wait if user is busy
+
+      /* Start more files, until we have as many as there are threads. */
+
+      while ((cancelFlag == false) && (stopFlag == false)
+        && (startFile <= numFiles) && (startFile < (thisFile + verifyThreads)))
+      {
+        fileName = createFilename(startFile); // formatted name with number
+        verifier = new EraseDisk3Verify(new File(userFolder, fileName),
+          fileName, randomFlag, (dataCipher != null), fillByte, dataBuffer,
+          sizeLimit, (randomBase + startFile), (verifyThreads > 1));
+        verifyList[(startFile - 1) % verifyThreads] = verifier;
+        verifier.mapBase = mapBase; // where this file starts in map
+        mapBase += verifier.fp.length(); // same as we wrote, or zero
+        if (startFile == thisFile) // is this the oldest file?
+        {
+          runFileBytesDone = 0; // no bytes read yet
+          runFileName = fileName; // save name for next update by timer
+        }
+        if (verifyThreads > 1)    // run as a separate thread
+        {
+          Thread reader = new Thread(verifier, ("verifyThread" + startFile));
+          reader.setPriority(Thread.MIN_PRIORITY); // same as "eraseThread"
+          reader.start();
+        }
+        else                      // run now, on this thread
+          verifier.run();
+        startFile ++;             // next file to be started, if any
+      }
+
+      /* Wait for the oldest file, report its results, and add its totals to
+      this pass. */
+
+      verifier = verifyList[(thisFile - 1) % verifyThreads];
+      verifyList[(thisFile - 1) % verifyThreads] = null;
+      runFileBytesDone = verifier.fileBytesDone;
+      runFileName = verifier.fileName; // save name for next update by timer
+      while (verifier.waitDone(TIMER_DELAY) == false) // while file not done
+        if (pauseFlag) doPauseCheck(); // wait if user is busy
+      verifier.putLines();        // messages saved by worker thread, if any
+      if (mapText != null)        // are we saving the verify map?
+        verifier.mapLines(mapText); // good and bad ranges in this file
+      if (verifier.compareFail)   // did comparison fail for this file?
+        passVerifyFail = true;    // at least one failure to compare data
+      if (verifier.openFail)      // couldn't open this file?
+        stopFlag = true;          // don't start any more files
+      passBlocksBad += verifier.blocksBad; // blocks read (all files)
+      passBlocksRead += verifier.blocksRead;
+      passBlocksTotal += (verifier.fp.length() + sizeLimit - 1) / sizeLimit;
+      passCorrectBytes += verifier.correctBytes; // correct bytes (all files)
+      runPassCompareNanos += verifier.compareNanos; // where the time went
+      runPassCpuNanos += verifier.cpuNanos;
+      runPassGenerateNanos += verifier.generateNanos;
+      runPassTransferNanos += verifier.readNanos;
+      runTotalErrors += verifier.errorCount; // errors detected in this file
+      thisFile ++;                // now do the next temporary file
+    }
+
+    /* Summary after reading all files. */
+
+    runPassEstMax = passEstMax;   // for the next pass, if any
+    if (cancelFlag == false)      // if the user didn't interrupt us
+    {
+      if (samplePercent > 0)      // did we only read some blocks?
+      {
+        /* A sample can't prove that all data is correct.  We report how
+        many blocks were read, and estimate how many in total are bad. */
+
+        putOutput("Sampled " + formatComma.format(passBlocksRead) + " of "
+          + prettyPlural(passBlocksTotal, "block") + " in "
+          + prettyPlural(numFiles, "temporary file") + " with "
+          + formatComma.format(runPassBytesDone) + " bytes read.");
+        if (mapBase != savedWriteBytes) // files changed size since writing?
+          putOutput("Verify failed with " + formatComma.format(
+            savedWriteBytes) + " bytes written but only "
+            + formatComma.format(mapBase) + " bytes in files.");
+        if (passBlocksBad > 0)    // did we find any bad blocks?
+          putOutput("Sample had " + prettyPlural(passBlocksBad, "bad block")
+            + ", so about " + formatComma.format(Math.round((double)
+            passBlocksBad * passBlocksTotal / passBlocksRead)) + " of "
+            + formatComma.format(passBlocksTotal) + " blocks may be bad.");
+        else if (passBlocksRead < SAMPLE_RULE) // too few for an estimate?
+          putOutput("Sample was too small to estimate bad blocks.");
+        else                      // no errors in a large enough sample
+          putOutput("Sample had no errors, so with 95% confidence, fewer"
+            + " than 1 in " + formatComma.format(passBlocksRead
+            / SAMPLE_RULE) + " blocks are bad.");
+      }
+      else if ((passCorrectBytes == savedWriteBytes)
+        && (passVerifyFail == false))
+      {
+        /* If there were no errors, then the following variables all have the
+        same value: passCorrectBytes, runPassBytesDone, savedWriteBytes. */
+
+        putOutput("Verified " + prettyPlural(numFiles, "temporary file")
+          + " with " + formatComma.format(runPassBytesDone) + " bytes.");
+      }
+      else                        // we didn't read what we previously wrote
+      {
+        putOutput("Verify failed with " + formatComma.format(savedWriteBytes)
+          + " bytes written but only " + formatComma.format(passCorrectBytes)
+          + " bytes correct.");
+      }
+      passTimeUsed = clockMillis() - clockPassStart
+        + clockPassSaved;         // elapsed time for this write pass
+      if (passTimeUsed > SMALL_MILLIS) // avoid division close to zero time
+      {
+        putOutput("Average read speed was " + formatSpeed((double)
+          runPassBytesDone * 1000.0 / (double) passTimeUsed) + " over "
+          + formatHours(passTimeUsed) + ".");
+        putPassTimes(true, passTimeUsed, runPassBytesDone);
+      }
+    }
+    saveZones();                  // throughput profile, even if cancelled
+    if (mapText != null)          // save verify map, even if cancelled
+    {
+      try
+      {
+        FileWriter output = new FileWriter(MAP_FILE_NAME);
+        output.write(mapText.toString());
+        output.close();
+        putOutput("Saved verify map in " + new File(MAP_FILE_NAME)
+          .getAbsolutePath());
+      }
+      catch (IOException ioe)
+      {
+        putOutput(MAP_FILE_NAME + " - " + ioe.getMessage());
+        runTotalErrors ++;        // one more error detected
+      }
+    }
+
+  } // end of verifyFiles() method
+
+
+/*
+  waitDelete() method
+
+  If temporary files from the previous pass are still being deleted, then wait
+  for them and return true (more space may be available).  Otherwise, return
+  false.  The results are reported later by finishDelete().
+*/
+  static boolean waitDelete()
+  {
+    long start = clockNanos();    // time waiting for deletes
+    boolean result = (fileDeleter != null) && fileDeleter.waitAll();
+    runPassDeleteNanos += clockNanos() - start;
+    return(result);
+  }
+
+
+/*
+  writeQueued() method
+
+  Write full-size buffers to one temporary file with several requests
+  outstanding at the same time, one for each worker thread in <writerList>.
+  Each buffer has a known position in the file, so it doesn't matter in which
+  order the writes finish.  We stop at the same limits as the inner <while>
+  loop in startEraser(), or when any write fails.
+
+  We start writing at <runFileBytesDone>.  A failed write may be followed by
+  successful writes at later positions, so we wait for all outstanding
+  requests, then truncate the file at the lowest position that failed.  The
+  pseudo-random sequence is replayed up to that position.  The caller continues
+  writing at the end of the file, in order and with smaller buffers, which is
+  no different than for synchronous writes.  We also stop before reaching a
+  known maximum file size (<fileCeiling>), and let the caller finish the file.
+
+  Returns true if a write failed (the disk may be full), false otherwise.
+  Throws IOException only if the file can't be truncated or positioned.
+*/
+  static boolean writeQueued(
+    FileChannel channel,          // file opened by caller
+    String fileName,              // name of file, for messages
+    boolean randomFlag,           // true if using pseudo-random sequence
+    byte[] dataBuffer,            // data bytes prepared by startEraser()
+    int sizeLimit,                // first and assumed maximum buffer size
+    java.util.Random randomGen,   // pseudo-random number generator
+    long randomSeed)              // starting seed for this file
+    throws IOException
+  {
+    int dataIndex;                // starting index of block in data buffer
+    long extraBytes;              // bytes written after a failed write
+    IOException failReason;       // exception from first failed write
+    long failPosition;            // lowest position of failed write, or -1
+    long i;                       // index variable
+    long start;                   // clockNanos() before each step
+    EraseDisk3Writer writer;      // one worker thread for queued writes
+    int writerNext;               // index of next worker thread to use
+    IOException writerReason;     // exception from one worker thread, or null
+
+    failPosition = -1;            // no failed writes yet
+    failReason = null;
+    writerNext = 0;               // start with first worker thread
+
+    while ((cancelFlag == false) && (failPosition < 0)
+      && (runFileBytesDone < userFileSize) && (runPassBytesDone < userPassSize)
+      && ((fileCeiling == 0) || ((runFileBytesDone + sizeLimit) <= fileCeiling)))
+    {
+      if (pauseFlag) doPauseCheck(); // wait if user is busy
+
+      /* Worker threads are used in rotation.  Wait for the oldest request to
+      finish before giving that thread another request. */
+
+      writer = writerList[writerNext];
+      writerNext = (writerNext + 1) % writerList.length;
+      start = clockNanos();       // time waiting for write calls
+      writerReason = writer.waitDone();
+      runPassTransferNanos += clockNanos() - start;
+      if (writerReason != null)   // did previous request fail?
+      {
+        failPosition = writer.position;
+        failReason = writerReason;
+        break;                    // exit early from <while> loop
+      }
+
+      if (randomFlag == false)    // constant value for data bytes?
+      {
+        writer.startWrite(channel, dataBuffer, 0, sizeLimit, runFileBytesDone);
+      }
+      else if (dataCipher != null) // AES/CTR key stream at this offset?
+      {
+        if (writer.ownBuffer == null) // worker needs its own data buffer
+          writer.ownBuffer = new byte[sizeLimit];
+        start = clockNanos();     // time for generating data
+        dataCipher.fillBlock(writer.ownBuffer, sizeLimit, runFileBytesDone);
+        runPassGenerateNanos += clockNanos() - start;
+        writer.startWrite(channel, writer.ownBuffer, 0, sizeLimit,
+          runFileBytesDone);
+      }
+      else if (FAST_RANDOM)       // do we re-use old random numbers?
+      {
+        dataIndex = randomGen.nextInt(sizeLimit);
+                                  // somewhat random starting index
+        writer.startWrite(channel, dataBuffer, dataIndex, sizeLimit,
+          runFileBytesDone);
+      }
+      else                        // always generate random numbers (slow)
+      {
+        if (writer.ownBuffer == null) // worker needs its own data buffer
+          writer.ownBuffer = new byte[sizeLimit];
+        start = clockNanos();     // time for generating data
+        writer.ownBuffer = dataGenerator.swapBuffer(writer.ownBuffer);
+                                  // new random bytes, filled ahead of time
+        runPassGenerateNanos += clockNanos() - start;
+        writer.startWrite(channel, writer.ownBuffer, 0, sizeLimit,
+          runFileBytesDone);
+      }
+      runFileBytesDone += sizeLimit; // add to bytes done for this file
+      runPassBytesDone += sizeLimit; // bytes done all files, this pass
+      runTotalBytesDone += sizeLimit; // bytes all passes, all data types
+      if ((forceInterval > 0) && (runFileBytesDone >= runFileForceNext))
+        forceFile(channel, fileName); // includes finished requests only
+      if ((throttleBytes > 0) && ((runFileBytesDone - runFileThrottleDone)
+        >= (throttleBytes / 2)))
+        throttleFile(channel, fileName); // background forced write
+      paceWrite(sizeLimit);       // limit our share of the disk
+    }
+
+    /* Wait for all outstanding requests, and find the lowest failed position,
+    if any. */
+
+    start = clockNanos();         // time waiting for write calls
+    for (int k = 0; k < writerList.length; k ++)
+    {
+      writer = writerList[k];
+      if (((writerReason = writer.waitDone()) != null) && ((failPosition < 0)
+        || (writer.position < failPosition)))
+      {
+        failPosition = writer.position;
+        failReason = writerReason;
+      }
+    }
+    runPassTransferNanos += clockNanos() - start;
+
+    if (failPosition >= 0)        // did any write fail?
+    {
+      if (debugFlag)              // does user want details?
+        putOutput(fileName + " - " + failReason.getMessage());
+
+      extraBytes = runFileBytesDone - failPosition; // not really written
+      runFileBytesDone -= extraBytes; // remove from bytes done for this file
+      runPassBytesDone -= extraBytes;
+      runTotalBytesDone -= extraBytes;
+      channel.truncate(failPosition); // release space from later writes
+
+      randomGen.setSeed(randomSeed); // replay pseudo-random sequence
+      if (randomFlag && (dataCipher == null) && (dataGenerator != null))
+        dataGenerator.restart(randomSeed); // same sequence, ahead of time
+      if (randomFlag && (dataCipher == null)) // AES/CTR is found by offset
+        for (i = failPosition / sizeLimit; i > 0; i --)
+        {
+          if (FAST_RANDOM) randomGen.nextInt(sizeLimit);
+          else dataGenerator.skipBuffer(); // same as nextBytes(), not used
+        }
+    }
+    channel.position(runFileBytesDone); // caller continues from here
+    return(failPosition >= 0);    // true if any write failed
+
+  } // end of writeQueued() method
+
+} // end of EraseDisk3 class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  EraseDisk3Cipher class
+
+  This class creates pseudo-random data as an AES key stream in counter (CTR)
+  mode, for the "-y" option, instead of using java.util.Random.  The key for
+  each file comes from the same known seed as the random sequence would, so a
+  later session can verify kept files.  The counter is the byte offset divided
+  by the AES block size, so any block in a file can be created without the
+  blocks before it, and the data never repeats inside a file.  Newer Java
+  versions use special processor instructions (AES-NI) when available, which
+  is much faster than nextBytes().  Each thread must have its own object.
+*/
+
+class EraseDisk3Cipher
+{
+  /* constants */
+
+  static final int BLOCK_SIZE = 16; // bytes in one AES block (and counter)
+  static final String CIPHER_NAME = "AES/CTR/NoPadding"; // Java 5.0 or later
+  static final int KEY_SIZE = 16; // bytes in AES-128 key
+
+  /* instance variables */
+
+  javax.crypto.Cipher cipher;     // AES in counter mode
+  byte[] counterBytes;            // initial counter for each block
+  javax.crypto.spec.SecretKeySpec keySpec; // key for current file
+  byte[] zeroBuffer;              // input bytes, encrypted into key stream
+                                  // ... (shared, never changed)
+
+  /* class constructor */
+
+  public EraseDisk3Cipher(int size)
+    throws java.security.GeneralSecurityException
+  {
+    cipher = javax.crypto.Cipher.getInstance(CIPHER_NAME); // may not exist
+    counterBytes = new byte[BLOCK_SIZE];
+    restart(0);                   // temporary key until caller sets one
+    cipher.init(javax.crypto.Cipher.ENCRYPT_MODE, keySpec,
+      new javax.crypto.spec.IvParameterSpec(counterBytes));
+                                  // fail now, not while writing files
+    zeroBuffer = EraseDisk3.bufferPool.constantBytes(0, size);
+                                  // shared, same size as biggest block
+  }
+
+  /* fill a buffer with the key stream starting at a given file offset, which
+  must be a multiple of BLOCK_SIZE */
+
+  void fillBlock(byte[] buffer, int length, long position)
+  {
+    ByteBuffer.wrap(counterBytes).putLong(0).putLong(position / BLOCK_SIZE);
+    try
+    {
+      cipher.init(javax.crypto.Cipher.ENCRYPT_MODE, keySpec,
+        new javax.crypto.spec.IvParameterSpec(counterBytes));
+      cipher.update(zeroBuffer, 0, length, buffer, 0); // no padding, no tail
+    }
+    catch (java.security.GeneralSecurityException gse) // shouldn't happen
+    {
+      throw new IllegalStateException(CIPHER_NAME + " - " + gse.getMessage());
+    }
+  }
+
+  /* set the key for a new file from a known seed */
+
+  void restart(long seed)
+  {
+    byte[] keyBytes = new byte[KEY_SIZE];
+    new java.util.Random(seed).nextBytes(keyBytes); // same seed, same key
+    keySpec = new javax.crypto.spec.SecretKeySpec(keyBytes, "AES");
+  }
+
+} // end of EraseDisk3Cipher class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  EraseDisk3Delete class
+
+  This class deletes temporary files with one or more background threads.
+  Each thread takes the next file number that nobody else has taken, so files
+  are deleted roughly in order, from first to last.  The main thread can wait
+  for one particular file, or for all files.  Error messages are saved until
+  the main thread calls putLines().  Deleting stops early if the "Cancel"
+  button clears <deleteFlag>.
+
+  With the "-s" option, each file is first truncated in steps (shrinkFile), by
+  only one thread, so that space is freed at the rate the user asked for.
+*/
+
+class EraseDisk3Delete implements Runnable
+{
+  /* instance variables */
+
+  int deleteCount;                // number of files successfully deleted
+  boolean[] doneList;             // true when file number has been tried
+  long errorCount;                // number of files that failed to delete
+  File folder;                    // directory or folder for temporary files
+  java.util.Vector lines;         // saved error messages
+  int nextFile;                   // next file number to be deleted
+  int numFiles;                   // number of temporary files to delete
+  int runCount;                   // number of threads still running
+  long startMillis;               // clock time when threads were started
+  long stopMillis;                // clock time when last thread finished
+
+  /* class constructor */
+
+  public EraseDisk3Delete(File newFolder, int newCount)
+  {
+    deleteCount = 0;              // no files deleted yet
+    doneList = new boolean[newCount + 1]; // file numbers start from one
+    errorCount = 0;               // no errors yet
+    folder = newFolder;
+    lines = new java.util.Vector();
+    nextFile = 1;                 // start with the first file we created
+    numFiles = newCount;
+    runCount = 0;                 // no threads running yet
+    startMillis = stopMillis = EraseDisk3.clockMillis();
+  }
+
+  /* put saved messages, if any, from the main thread */
+
+  synchronized void putLines()
+  {
+    for (int i = 0; i < lines.size(); i ++)
+      EraseDisk3.putOutput((String) lines.get(i));
+    lines.clear();                // each message is put only once
+  }
+
+  /* each thread deletes files until there are no more */
+
+  public void run()
+  {
+    String fileName;              // name of current file
+    File fp;                      // File object for current file
+    int thisFile;                 // current file number
+
+    while (true)                  // until no more files, or cancelled
+    {
+      if (EraseDisk3.pauseFlag) EraseDisk3.doPauseWait(); // wait if busy
+
+      synchronized (this)         // take the next file number
+      {
+        if ((EraseDisk3.deleteFlag == false) || (nextFile > numFiles))
+        {
+          runCount --;            // this thread is no longer running
+          if (runCount == 0)      // was this the last thread?
+            stopMillis = EraseDisk3.clockMillis();
+          this.notifyAll();       // wake up main thread if waiting
+          return;
+        }
+        thisFile = nextFile ++;
+      }
+
+      fileName = EraseDisk3.createFilename(thisFile); // formatted name
+      fp = new File(folder, fileName); // File object for this file
+      if (EraseDisk3.shrinkBytes > 0) // free space in steps first?
+        shrinkFile(fp);
+      if (fp.delete())            // try to delete this file
+      {
+        if (EraseDisk3.debugFlag) // does user want details?
+          EraseDisk3.putOutput(fileName + " - temporary file deleted");
+        synchronized (this) { deleteCount ++; } // one more file deleted
+      }
+      else                        // something went wrong
+      {
+        synchronized (this)
+        {
+          lines.add(fileName + " - failed to delete file");
+          errorCount ++;          // one more error detected
+        }
+      }
+
+      synchronized (this)
+      {
+        doneList[thisFile] = true; // this file number is done
+        this.notifyAll();         // wake up main thread if waiting
+      }
+    }
+  }
+
+  /* truncate one file in steps from the end; errors are left for delete */
+
+  void shrinkFile(File fp)
+  {
+    FileChannel channel;          // channel for truncating the file
+    RandomAccessFile file;        // file opened for reading and writing
+    long size;                    // current size of the file in bytes
+
+    try { file = new RandomAccessFile(fp, "rw"); }
+    catch (IOException ioe) { return; } // can't open, so just delete
+    try
+    {
+      channel = file.getChannel();
+      size = channel.size();      // start from the end of the file
+      while (EraseDisk3.deleteFlag && (size > EraseDisk3.shrinkBytes))
+      {
+        if (EraseDisk3.pauseFlag) EraseDisk3.doPauseWait(); // wait if busy
+        size -= EraseDisk3.shrinkBytes; // one step closer to empty
+        channel.truncate(size);   // free space at the end of the file
+        EraseDisk3.sleep(EraseDisk3.shrinkMillis); // let others use the disk
+      }
+    }
+    catch (IOException ioe) { /* ignore errors */ }
+    try { file.close(); } catch (IOException ioe) { /* ignore errors */ }
+  }
+
+  /* start deleting files with a given number of threads, or only one thread
+  if shrinking files */
+
+  void start(int threads)
+  {
+    if (EraseDisk3.shrinkBytes > 0) // shrinking files at a fixed rate?
+      threads = 1;                // yes, more threads would be faster
+    runCount = threads;           // before any thread can finish
+    startMillis = EraseDisk3.clockMillis(); // deleting starts now
+    for (int i = 0; i < threads; i ++)
+    {
+      Thread deleter = new Thread(this, ("deleteThread" + i));
+      deleter.setPriority(Thread.MIN_PRIORITY); // same as "eraseThread"
+      deleter.start();
+    }
+  }
+
+  /* wait for all threads to finish; return true if we had to wait */
+
+  synchronized boolean waitAll()
+  {
+    boolean result = (runCount > 0); // true if threads still running
+    while (runCount > 0)          // until all threads have finished
+      try { this.wait(); } catch (InterruptedException ie) { }
+    return(result);
+  }
+
+  /* wait for one file number to be deleted (or tried) */
+
+  synchronized void waitFile(int number)
+  {
+    while ((number <= numFiles) && (doneList[number] == false)
+      && (runCount > 0))          // until file done or threads finished
+      try { this.wait(); } catch (InterruptedException ie) { }
+  }
+
+} // end of EraseDisk3Delete class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  EraseDisk3Generator class
+
+  This class is a worker thread that generates pseudo-random data ahead of the
+  writer, when FAST_RANDOM is false and every block gets new random bytes.  A
+  small ring of buffers is filled in order from one java.util.Random sequence,
+  so the data is exactly the same as calling nextBytes() directly, and read
+  verify doesn't change.  The writer swaps its used buffer for the oldest full
+  buffer, without copying.  Only one thread fills the ring: each block depends
+  on the one before it in the same sequence, so more threads wouldn't help.
+*/
+
+class EraseDisk3Generator implements Runnable
+{
+  /* constants */
+
+  static final int RING_SIZE = 4; // buffers filled ahead of the writer
+
+  /* instance variables */
+
+  long cpuNanos;                  // CPU time for filling buffers, until
+                                  // ... returned by takeCpuNanos()
+  int fillCount;                  // full buffers waiting in the ring
+  int fillNext;                   // index of oldest full buffer in the ring
+  boolean finishFlag;             // true when worker thread should end
+  java.util.Random randomGen;     // sequence for current file, or null
+  byte[][] ringList;              // buffers in the ring, full or empty
+  long sequenceNumber;            // changes each time we restart
+
+  /* class constructor */
+
+  public EraseDisk3Generator(int size)
+  {
+    cpuNanos = 0;                 // no CPU time used yet
+    fillCount = fillNext = 0;     // no full buffers yet
+    finishFlag = false;           // keep running until told otherwise
+    randomGen = null;             // wait for first restart()
+    ringList = new byte[RING_SIZE][];
+    for (int i = 0; i < RING_SIZE; i ++)
+      ringList[i] = new byte[size]; // same size as buffers we swap
+    sequenceNumber = 0;
+  }
+
+  /* stop worker thread after current buffer, if any */
+
+  synchronized void finish()
+  {
+    finishFlag = true;            // ask worker thread to end
+    this.notifyAll();             // wake up if idle
+  }
+
+  /* start a new sequence from a known seed, and forget any full buffers */
+
+  synchronized void restart(long seed)
+  {
+    fillCount = 0;                // full buffers were from old sequence
+    randomGen = new java.util.Random(seed); // same as setSeed() on writer
+    sequenceNumber ++;            // buffer being filled now is thrown away
+    this.notifyAll();             // wake up worker thread
+  }
+
+  /* separate thread fills empty buffers in order */
+
+  public void run()
+  {
+    byte[] thisBuffer;            // local copy of buffer being filled
+    long thisCpu;                 // CPU time for this buffer, or -1
+    java.util.Random thisGen;
+    long thisSequence;
+
+    while (true)                  // until asked to finish
+    {
+      synchronized (this)
+      {
+        while ((finishFlag == false) && ((randomGen == null)
+          || (fillCount >= RING_SIZE)))
+        {
+          try { this.wait(); } catch (InterruptedException ie) { }
+        }
+        if (finishFlag)           // finish even if ring isn't full
+          return;
+        thisBuffer = ringList[(fillNext + fillCount) % RING_SIZE];
+        thisGen = randomGen;      // only this thread uses the generator
+        thisSequence = sequenceNumber;
+      }
+
+      thisCpu = EraseDisk3.threadCpuNanos(); // CPU time before filling
+      thisGen.nextBytes(thisBuffer); // slow part, outside synchronized
+      if (thisCpu >= 0)           // is CPU time available?
+        thisCpu = EraseDisk3.threadCpuNanos() - thisCpu;
+
+      synchronized (this)
+      {
+        if (thisCpu > 0) cpuNanos += thisCpu; // CPU time for all buffers
+        if (thisSequence == sequenceNumber) // still the same sequence?
+        {
+          fillCount ++;           // one more full buffer in the ring
+          this.notifyAll();       // wake up writer if waiting
+        }
+      }
+    }
+  }
+
+  /* skip the oldest full buffer, when replaying a sequence after an error */
+
+  synchronized void skipBuffer()
+  {
+    while (fillCount == 0)        // wait for a full buffer
+      try { this.wait(); } catch (InterruptedException ie) { }
+    fillCount --;                 // same buffer will be filled again
+    fillNext = (fillNext + 1) % RING_SIZE;
+    this.notifyAll();             // wake up worker thread
+  }
+
+  /* give back a used buffer, and take the oldest full buffer in exchange */
+
+  synchronized byte[] swapBuffer(byte[] used)
+  {
+    while (fillCount == 0)        // wait for a full buffer
+      try { this.wait(); } catch (InterruptedException ie) { }
+    byte[] result = ringList[fillNext]; // oldest full buffer
+    ringList[fillNext] = used;    // used buffer is empty, goes in the ring
+    fillCount --;
+    fillNext = (fillNext + 1) % RING_SIZE;
+    this.notifyAll();             // wake up worker thread
+    return(result);
+  }
+
+  /* return CPU time used since the last call, and start again from zero */
+
+  synchronized long takeCpuNanos()
+  {
+    long result = cpuNanos;       // CPU time since the last call
+    cpuNanos = 0;
+    return(result);
+  }
+
+} // end of EraseDisk3Generator class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  EraseDisk3Grid class
+
+  This class draws a graph or grid of previous data transfer rates as a simple
+  bar graph with vertical bars rising from the bottom.
+
+  Almost no Java objects are created or disposed of in this class, making it
+  very memory efficient.  A earlier version used a <Vector> of <Double> objects
+  to store the data history.  It was slower and more awkward than the current
+  circular buffer (array), because a <Vector> requires constant pruning, which
+  must be coordinated with the painting, but can't rely on the painting, since
+  a program can run while its paint method isn't being called, for example,
+  when the program window is minimized.  (Yes, a deliberate run-on sentence.)
+
+  The history has three tiers: one-second rates, then minutes and hours, each
+  with the minimum, average, and maximum rate in that time.  Each tier is a
+  circular buffer of the same size, so 512 hours (three weeks) fit in a fixed
+  amount of memory.  By default, the graph shows recent seconds.  Clicking on
+  the graph switches between recent seconds and the whole job, which uses the
+  finest tier that still has all of it.  A column with more than one second
+  shows its minimum as a solid bar, the range up to its maximum in a lighter
+  color, and its average as a short line.
+
+  This class as implemented does not protect its instance variables.
+*/
+
+class EraseDisk3Grid extends JPanel
+{
+  /* constants */
+
+  static final int DATA_SIZE = 512; // maximum size of data in each tier
+                                  // ... and slightly faster if power of two
+  static final int GAP_DEFAULT = 3; // default pixel spacing between bars
+  static final int[] TIER_SPANS = {1, 60, 3600}; // seconds per entry in each
+                                  // ... tier (assumes one rate per second)
+  static final long serialVersionUID = 0;
+                                  // not used, just to keep compiler happy
+  static final int WIDTH_DEFAULT = 10; // default pixel width of each bar
+
+  /* instance variables */
+
+  Color barColor;                 // use same color from Java look-and-feel
+  int barGap;                     // pixels between bars in graph
+  int barWidth;                   // width of vertical bars in pixels
+  int cacheColumns, cacheGroup, cacheStart, cacheTier; // what was drawn in
+                                  // ... cached image, so we can add to it
+  java.awt.image.BufferedImage cacheImage; // columns drawn so far, or null
+  long cacheRates;                // <rateCount> when image was drawn
+  double cacheScale;              // <maxFound> when image was drawn
+  boolean cacheZoom;              // <zoomFlag> when image was drawn
+  double maxFound;                // maximum data value found recently
+  Color rangeColor;               // lighter color for minimum to maximum
+  long rateCount;                 // number of rates added in this job
+  int[] tierCount;                // number of entries in each tier
+  double[][] tierMax, tierMin, tierSum; // maximum, minimum, and total rate
+                                  // ... for each entry, circular buffers
+  int[][] tierSeconds;            // number of rates added to each entry
+  int[] tierStart;                // index of first or oldest entry, each tier
+  boolean zoomFlag;               // true if we show whole job, false for
+                                  // ... recent seconds only
+
+  /* class constructor */
+
+  public EraseDisk3Grid(int width, int gap)
+  {
+    super();                      // initialize our superclass first (JPanel)
 
     barColor = UIManager.getColor("ProgressBar.foreground");
                                   // use same color from Java look-and-feel
     if (barColor == null) barColor = Color.GRAY; // do we need a default here?
+    Color back = this.getBackground(); // blend bar color with background
+    rangeColor = new Color(((barColor.getRed() + back.getRed()) / 2),
+      ((barColor.getGreen() + back.getGreen()) / 2),
+      ((barColor.getBlue() + back.getBlue()) / 2));
+
+    barGap = gap;                 // pixels between vertical bars in graph
+    if ((barGap < 0) || (barGap > 99)) barGap = GAP_DEFAULT;
+                                  // silently apply default if out of range
+
+    barWidth = width;             // width of each vertical bar in pixels
+    if ((barWidth < 1) || (barWidth > 999)) barWidth = WIDTH_DEFAULT;
+
+    maxFound = 123456789.0;       // initial value for maximum rate found
+    tierCount = new int[TIER_SPANS.length]; // circular buffers, fixed size
+    tierMax = new double[TIER_SPANS.length][DATA_SIZE];
+    tierMin = new double[TIER_SPANS.length][DATA_SIZE];
+    tierSeconds = new int[TIER_SPANS.length][DATA_SIZE];
+    tierStart = new int[TIER_SPANS.length];
+    tierSum = new double[TIER_SPANS.length][DATA_SIZE];
+    zoomFlag = false;             // show recent seconds, as always
+    this.setToolTipText("Click to show whole job");
+    clearHistory();               // no data values yet in history
+  }
+
+  /* add new data rate to history */
+
+  void addRate(double rate)
+  {
+    int i;                        // index of current entry in one tier
+
+    for (int t = 0; t < TIER_SPANS.length; t ++)
+    {
+      i = (tierStart[t] + tierCount[t] - 1) % DATA_SIZE; // newest entry
+      if ((tierCount[t] == 0) || (tierSeconds[t][i] >= TIER_SPANS[t]))
+      {                           // start a new entry in this tier
+        if (tierCount[t] < DATA_SIZE) // if the circular buffer is not full
+        {
+          i = tierCount[t] ++;    // initial fill, starting from empty
+        }
+        else                      // buffer is full, re-use oldest entry
+        {
+          i = tierStart[t];       // starting index is the oldest data
+          tierStart[t] = (i + 1) % DATA_SIZE; // increment and wrap around
+        }
+        tierMax[t][i] = tierMin[t][i] = tierSum[t][i] = rate;
+        tierSeconds[t][i] = 1;
+      }
+      else                        // add to newest entry in this tier
+      {
+        tierMax[t][i] = Math.max(tierMax[t][i], rate);
+        tierMin[t][i] = Math.min(tierMin[t][i], rate);
+        tierSum[t][i] += rate;
+        tierSeconds[t][i] ++;
+      }
+    }
+    rateCount ++;                 // one more rate in this job
+    this.repaint();               // repaint sometime soon
+  }
+
+  /* return column height in pixels for one data value */
+
+  int barHeight(double value, int panelHeight)
+  {
+    int k = (int) ((value / maxFound) * panelHeight); // height in pixels
+    return(Math.max(2, Math.min(k, panelHeight))); // minimum (base), maximum
+  }
+
+  /* clear display panel and history */
+
+  void clearHistory()
+  {
+    cacheImage = null;            // draw everything again on next paint
+    for (int t = 0; t < TIER_SPANS.length; t ++)
+      tierCount[t] = tierStart[t] = 0; // ignore previous data in each tier
+    rateCount = 0;
+    this.repaint();               // repaint sometime soon
+  }
+
+  /* draw some columns into the cached image, starting from the oldest */
+
+  void drawColumns(
+    Graphics context,             // drawing context for cached image
+    int tier,                     // which tier in history we draw
+    int group,                    // tier entries drawn as one column
+    int shown,                    // number of tier entries drawn
+    int first,                    // index of first column to draw
+    int columns)                  // number of columns for all entries
+  {
+    int dataNext;                 // index of next data value in history
+    int end;                      // index after last entry in this column
+    int i, k;                     // index variables
+    double max, min, seconds, sum; // one column, maybe several entries
+    int panelHeight;              // height of cached image in pixels
+    int panelOffset;              // left side of current column (pixels)
+
+    panelHeight = cacheImage.getHeight(); // same as panel when drawn
+    for (int c = first; c < columns; c ++) // for each column or vertical bar
+    {
+      i = c * group;              // index of first entry in this column
+      end = Math.min(shown, (i + group)); // newest column may have fewer
+      dataNext = (tierStart[tier] + tierCount[tier] - shown + i) % DATA_SIZE;
+                                  // index of first data value we want
+      max = min = tierMin[tier][dataNext]; // combine entries in this column
+      seconds = sum = 0.0;
+      for ( ; i < end; i ++)
+      {
+        max = Math.max(max, tierMax[tier][dataNext]);
+        min = Math.min(min, tierMin[tier][dataNext]);
+        seconds += tierSeconds[tier][dataNext];
+        sum += tierSum[tier][dataNext];
+        dataNext = (dataNext + 1) % DATA_SIZE; // index of next data value
+      }
+
+      /* You may center or right align the bar graph, in the panel width, by
+      adding to the <panelOffset> variable. */
+
+      panelOffset = c * (barGap + barWidth); // left side of this column
+      if (max > min)              // more than one rate in this column?
+      {
+        context.setColor(rangeColor); // lighter from minimum to maximum
+        k = barHeight(max, panelHeight);
+        context.fillRect(panelOffset, (panelHeight - k), barWidth, k);
+      }
+      context.setColor(barColor); // flood fill with our choice of color
+      k = barHeight(min, panelHeight); // column height in pixels
+      context.fillRect(panelOffset, (panelHeight - k), barWidth, k);
+      if (max > min)              // mark the average with a short line
+      {
+        k = barHeight((sum / seconds), panelHeight);
+        context.fillRect(panelOffset, (panelHeight - k), barWidth, 2);
+      }
+    }
+  }
+
+  /* paint the display panel */
+
+  protected void paintComponent(Graphics context)
+  {
+    int columns;                  // columns used by shown entries
+    int first;                    // first column to draw again, if any
+    int group;                    // tier entries drawn as one column
+    Graphics image;               // drawing context for cached image
+    int panelColumns;             // number of columns (vertical bars)
+    int panelHeight;              // height of this panel in pixels
+    int panelWidth;               // width of this panel in pixels
+    double recentMax;             // maximum value seen on this call
+    boolean rebuildFlag;          // true if we draw all columns again
+    int shift;                    // columns to move left in cached image
+    int shown;                    // number of tier entries drawn
+    int step;                     // pixels from one column to the next
+    int tier;                     // which tier in history we draw
+
+    super.paintComponent(context); // anything base JPanel wants first
+
+    /* Calculate how many columns (vertical bars) will fit in the width of the
+    given panel.  The size of the panel may change each time we are called. */
+
+    panelHeight = this.getHeight(); // height of this panel in pixels
+    panelWidth = this.getWidth(); // width of this panel in pixels
+    if ((panelHeight <= 0) || (panelWidth <= 0)) return; // nothing to see
+    step = barGap + barWidth;     // pixels from one column to the next
+    panelColumns = Math.max(1, ((panelWidth + barGap) / step));
+                                  // number of vertical bars across panel
+
+    /* Choose a tier.  Recent activity is the newest one-second rates.  The
+    whole job is the first tier that still has all rates since the job started
+    (hours may be missing after three weeks).  If there are more entries than
+    columns, then we combine a group of entries into each column, starting
+    from the oldest, so new entries only change the newest column. */
+
+    group = 1;                    // assume one entry per column
+    tier = 0;                     // assume one-second rates
+    if (zoomFlag)                 // does user want to see the whole job?
+    {
+      while ((tier < (TIER_SPANS.length - 1))
+        && (rateCount > ((long) TIER_SPANS[tier] * DATA_SIZE)))
+      {
+        tier ++;                  // need bigger entries
+      }
+      group = (tierCount[tier] + panelColumns - 1) / panelColumns;
+      group = Math.max(1, group); // round up, and avoid zero
+    }
+    shown = Math.min(tierCount[tier], (panelColumns * group));
+                                  // limit available data
+    columns = (shown + group - 1) / group; // oldest column is always full
+
+    /* Find the maximum value before drawing, since that sets the scale.
+    Maintain a cushion around the maximum, so that the display scale doesn't
+    change too often.  When setting a new value for <maxFound>, a multiplier of
+    1.00 causes the exact maximum to show in the GUI, while a larger multiplier
+    such as 1.02 provides a better cushion.  Users may quote a displayed number
+    as the maximum, so that really should be the maximum. */
+
+    recentMax = 1.0;              // as low as we can go and not be zero
+    for (int i = 0; i < shown; i ++)
+      recentMax = Math.max(recentMax, tierMax[tier][(tierStart[tier]
+        + tierCount[tier] - shown + i) % DATA_SIZE]);
+    if ((recentMax < (maxFound * 0.95)) || (recentMax > maxFound))
+      maxFound = Math.max(1.0, (recentMax * 1.00));
+
+    /* Columns are drawn into a cached image, which is copied to the panel.
+    Most calls only need to move recent seconds left by the number of new
+    rates and draw the new columns, or draw the newest column again for the
+    whole job.  Everything is drawn again only when the panel size, scale,
+    tier, or grouping changes.  Expose events just copy the image. */
+
+    first = shift = 0;            // assume we draw everything again
+    rebuildFlag = (cacheImage == null) || (cacheImage.getHeight()
+      != panelHeight) || (cacheImage.getWidth() != panelWidth)
+      || (cacheGroup != group) || (cacheScale != maxFound) || (cacheTier
+      != tier) || (cacheZoom != zoomFlag) || (rateCount < cacheRates);
+    if (rebuildFlag)              // nothing we can keep from cached image?
+    {
+      if ((cacheImage == null) || (cacheImage.getHeight() != panelHeight)
+        || (cacheImage.getWidth() != panelWidth))
+      {
+        cacheImage = new java.awt.image.BufferedImage(panelWidth, panelHeight,
+          java.awt.image.BufferedImage.TYPE_INT_RGB);
+      }
+    }
+    else if (zoomFlag == false)   // recent seconds, one entry per column
+    {
+      if ((rateCount - cacheRates) > shown) // more new rates than columns?
+        rebuildFlag = true;
+      else
+      {
+        first = columns - (int) (rateCount - cacheRates); // new columns
+        shift = cacheColumns - first; // old columns that we move left
+      }
+    }
+    else if (cacheStart != tierStart[tier]) // did the oldest hours go away?
+      rebuildFlag = true;
+    else
+      first = Math.max(0, (cacheColumns - 1)); // newest column may change
+
+    image = cacheImage.getGraphics(); // draw into cached image
+    if ((shift > 0) && ((shift * step) < panelWidth))
+      image.copyArea((shift * step), 0, (panelWidth - (shift * step)),
+        panelHeight, -(shift * step), 0);
+    image.setColor(this.getBackground()); // erase columns we draw again
+    image.fillRect((first * step), 0, (panelWidth - (first * step)),
+      panelHeight);
+    drawColumns(image, tier, group, shown, first, columns);
+    image.dispose();
+
+    cacheColumns = columns;       // remember what's in the cached image
+    cacheGroup = group;
+    cacheRates = rateCount;
+    cacheScale = maxFound;
+    cacheStart = tierStart[tier];
+    cacheTier = tier;
+    cacheZoom = zoomFlag;
+    context.drawImage(cacheImage, 0, 0, null);
+
+  } // end of paintComponent() method
+
+  /* switch between recent seconds and the whole job */
+
+  void toggleZoom()
+  {
+    zoomFlag = ! zoomFlag;
+    this.setToolTipText(zoomFlag ? "Click to show recent seconds"
+      : "Click to show whole job");
+    this.repaint();               // repaint sometime soon
+  }
+
+} // end of EraseDisk3Grid class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  EraseDisk3Latch class
+
+  This class is a simple gate for the "Pause" button.  Threads that call
+  await() wait while the latch is closed, and continue when it opens.  Unlike
+  a bare wait() and notify(), the latch remembers its state, so a "Resume" that
+  happens before a thread starts waiting isn't lost.  An interrupt from the
+  "Cancel" button also ends the wait.
+*/
+
+class EraseDisk3Latch
+{
+  /* instance variables */
+
+  boolean openFlag;               // true if threads may continue
+
+  /* class constructor */
+
+  public EraseDisk3Latch()
+  {
+    openFlag = true;              // nothing is paused yet
+  }
+
+  /* wait until the latch is open, or this thread is interrupted */
+
+  synchronized void await()
+  {
+    while (openFlag == false)     // until "Resume" or "Cancel" button
+      try { this.wait(); } catch (InterruptedException ie) { return; }
+  }
+
+  /* close the latch, so that later calls to await() will wait */
+
+  synchronized void close()
+  {
+    openFlag = false;
+  }
+
+  /* open the latch, and wake up all threads that are waiting */
+
+  synchronized void open()
+  {
+    openFlag = true;
+    this.notifyAll();
+  }
+
+} // end of EraseDisk3Latch class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  EraseDisk3Map class
+
+  This class draws a map of good and bad regions found by read verify, for all
+  temporary files in one pass, as a square of small cells.  The map has a fixed
+  number of cells (buckets), no matter how big the disk is, so drawing is fast
+  and memory use is small.  Each cell starts as "not verified", becomes "good"
+  when verified bytes fall inside it, and becomes "bad" if any byte is wrong.
+  Bad cells stay bad.  Read verify threads change the map; the GUI timer calls
+  repaint().
+*/
+
+class EraseDisk3Map extends JPanel
+{
+  /* constants */
+
+  static final Color BAD_COLOR = Color.RED; // at least one wrong byte
+  static final int MAP_SIDE = 32; // cells across and down, square map
+  static final int MAP_SIZE = MAP_SIDE * MAP_SIDE; // total number of cells
+  static final Color NONE_COLOR = Color.LIGHT_GRAY; // not verified (yet)
+  static final byte STATE_BAD = 2; // cell has at least one wrong byte
+  static final byte STATE_GOOD = 1; // cell has only correct bytes
+  static final byte STATE_NONE = 0; // cell hasn't been verified
+  static final long serialVersionUID = 0;
+                                  // not used, just to keep compiler happy
+
+  /* instance variables */
+
+  Color goodColor;                // use same color from Java look-and-feel
+  byte[] stateList;               // state of each cell in the map
+  long totalBytes;                // bytes in all files, or zero for none
+
+  /* class constructor */
+
+  public EraseDisk3Map()
+  {
+    super();                      // initialize our superclass first (JPanel)
+
+    goodColor = UIManager.getColor("ProgressBar.foreground");
+                                  // same color as bar graph
+    if (goodColor == null) goodColor = Color.GRAY;
+
+    stateList = new byte[MAP_SIZE]; // all cells start as STATE_NONE
+    totalBytes = 0;               // nothing to map yet
+  }
+
+  /* return cell number for a byte offset */
+
+  int cellNumber(long offset)
+  {
+    return((int) Math.min((MAP_SIZE - 1), ((double) offset * MAP_SIZE
+      / totalBytes)));            // double, to avoid overflow in multiply
+  }
+
+  /* clear map for a new total size in bytes */
+
+  synchronized void clearMap(long total)
+  {
+    for (int i = 0; i < MAP_SIZE; i ++)
+      stateList[i] = STATE_NONE;
+    totalBytes = total;
+    this.repaint();               // repaint sometime soon
+  }
+
+  /* mark the cell for one byte as bad */
+
+  synchronized void markBad(long offset)
+  {
+    if ((offset >= 0) && (offset < totalBytes))
+      stateList[cellNumber(offset)] = STATE_BAD;
+  }
+
+  /* mark cells for a range of bytes as good, unless already bad */
+
+  synchronized void markGood(long offset, long length)
+  {
+    if ((length <= 0) || (offset < 0) || (offset >= totalBytes)) return;
+    int last = cellNumber(Math.min((offset + length), totalBytes) - 1);
+    for (int i = cellNumber(offset); i <= last; i ++)
+      if (stateList[i] == STATE_NONE) stateList[i] = STATE_GOOD;
+  }
+
+  /* paint the display panel */
+
+  protected void paintComponent(Graphics context)
+  {
+    int i;                        // index variable
+    int panelHeight;              // height of this panel in pixels
+    int panelWidth;               // width of this panel in pixels
+    byte state;                   // state of current cell
+    int x, y;                     // top left corner of current cell
+
+    super.paintComponent(context); // anything base JPanel wants first
+    if (totalBytes <= 0) return;  // nothing to draw until verify starts
+
+    /* Cells are drawn left to right, top to bottom, in the same order as the
+    files and bytes.  Cell edges are calculated from the panel size, so there
+    are no gaps when the size isn't a multiple of MAP_SIDE. */
+
+    panelHeight = this.getHeight(); // height of this panel in pixels
+    panelWidth = this.getWidth(); // width of this panel in pixels
+    for (i = 0; i < MAP_SIZE; i ++)
+    {
+      state = stateList[i];       // may change while we draw, that's okay
+      context.setColor((state == STATE_BAD) ? BAD_COLOR
+        : ((state == STATE_GOOD) ? goodColor : NONE_COLOR));
+      x = (i % MAP_SIDE) * panelWidth / MAP_SIDE;
+      y = (i / MAP_SIDE) * panelHeight / MAP_SIDE;
+      context.fillRect(x, y, (((i % MAP_SIDE) + 1) * panelWidth / MAP_SIDE - x),
+        (((i / MAP_SIDE) + 1) * panelHeight / MAP_SIDE - y));
+    }
+  }
+
+} // end of EraseDisk3Map class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  EraseDisk3Pool class
+
+  This class keeps data buffers that are no longer in use, so that later files
+  and passes can use them again instead of allocating new buffers.  Buffers are
+  found by size.  There are never more free buffers than were in use at the
+  same time, so nothing limits the size of the pool.  Buffers with a constant
+  value (all zeros, all ones, etc) are filled once and cached by value.  They
+  are shared, and must never be changed.  Direct buffers (outside the Java
+  heap) are kept separately.  All methods may be called by any thread.
+*/
+
+class EraseDisk3Pool
+{
+  /* instance variables */
+
+  byte[][] constantList;          // cached constant buffers, by fill byte
+  java.util.Vector directList;    // free direct buffers, as ByteBuffer
+  java.util.Vector freeList;      // free byte arrays, as byte[]
+
+  /* class constructor */
+
+  public EraseDisk3Pool()
+  {
+    constantList = new byte[256][]; // one for each value 0x00 to 0xFF
+    directList = new java.util.Vector(); // no free buffers yet
+    freeList = new java.util.Vector();
+  }
+
+  /* return a shared buffer where all bytes have the same value, which the
+  caller must not change */
+
+  synchronized byte[] constantBytes(int fillByte, int size)
+  {
+    byte[] result = constantList[fillByte & 0xFF]; // cached buffer, if any
+    if ((result == null) || (result.length != size)) // create or replace?
+    {
+      result = new byte[size];    // allocate buffer at requested size
+      if (fillByte != 0)          // new buffers are already zero
+        java.util.Arrays.fill(result, (byte) fillByte);
+      constantList[fillByte & 0xFF] = result;
+    }
+    return(result);
+  }
+
+  /* give back a byte array that the caller no longer uses */
+
+  synchronized void giveBytes(byte[] buffer)
+  {
+    if (buffer != null) freeList.add(buffer);
+  }
+
+  /* give back a direct buffer that the caller no longer uses */
+
+  synchronized void giveDirect(ByteBuffer buffer)
+  {
+    if ((buffer != null) && buffer.isDirect()) directList.add(buffer);
+  }
+
+  /* take a free byte array of the requested size, or allocate a new array;
+  contents are left over from the previous user */
+
+  synchronized byte[] takeBytes(int size)
+  {
+    for (int i = freeList.size() - 1; i >= 0; i --) // most recent first
+    {
+      byte[] buffer = (byte[]) freeList.get(i);
+      if (buffer.length == size) // same size as requested?
+      {
+        freeList.remove(i);       // caller owns buffer now
+        return(buffer);
+      }
+    }
+    return(new byte[size]);       // nothing free, allocate new array
+  }
+
+  /* take a free direct buffer of the requested size, or allocate a new one,
+  cleared for the caller */
+
+  synchronized ByteBuffer takeDirect(int size)
+  {
+    for (int i = directList.size() - 1; i >= 0; i --) // most recent first
+    {
+      ByteBuffer buffer = (ByteBuffer) directList.get(i);
+      if (buffer.capacity() == size) // same size as requested?
+      {
+        directList.remove(i);     // caller owns buffer now
+        buffer.clear();           // full size, from beginning
+        return(buffer);
+      }
+    }
+    return(ByteBuffer.allocateDirect(size)); // nothing free, allocate new
+  }
+
+} // end of EraseDisk3Pool class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  EraseDisk3Ranges class
+
+  This class collects wrong bytes from read verify into ranges: the starting
+  offset, the length, how many bytes were wrong, and the first expected and
+  actual values.  Consecutive wrong bytes, and wrong bytes with fewer than
+  RANGE_GAP correct bytes between them, go into the same range.  Only the
+  first RANGE_SAVED ranges are kept in detail; later ranges are only counted,
+  so memory use is small even for a disk that is entirely bad.  Nothing is
+  formatted as text until the caller asks.  Offsets must be added in order.
+*/
+
+class EraseDisk3Ranges
+{
+  /* instance variables */
+
+  byte[] actuals;                 // first actual (wrong) value in each range
+  byte[] expects;                 // first expected value in each range
+  long extraCount;                // number of ranges that weren't saved
+  long extraWrong;                // wrong bytes in ranges that weren't saved
+  long[] lengths;                 // number of bytes in each range
+  int savedCount;                 // number of ranges saved in arrays
+  long[] starts;                  // starting offset of each range
+  long thisEnd;                   // offset after current range, or -1
+  boolean thisSaved;              // true if current range is in arrays
+  long[] wrongs;                  // number of wrong bytes in each range
+
+  /* class constructor */
+
+  public EraseDisk3Ranges()
+  {
+    actuals = new byte[EraseDisk3.RANGE_SAVED];
+    expects = new byte[EraseDisk3.RANGE_SAVED];
+    extraCount = extraWrong = 0;  // no extra ranges yet
+    lengths = new long[EraseDisk3.RANGE_SAVED];
+    savedCount = 0;               // no ranges saved yet
+    starts = new long[EraseDisk3.RANGE_SAVED];
+    thisEnd = -1;                 // no current range
+    thisSaved = false;
+    wrongs = new long[EraseDisk3.RANGE_SAVED];
+  }
+
+  /* add one wrong byte at a given offset */
+
+  void addByte(long offset, byte expected, byte actual)
+  {
+    if ((thisEnd >= 0) && (offset < (thisEnd + EraseDisk3.RANGE_GAP)))
+    {
+      thisEnd = offset + 1;       // extend current range to this byte
+      if (thisSaved)              // is current range saved in arrays?
+      {
+        lengths[savedCount - 1] = thisEnd - starts[savedCount - 1];
+        wrongs[savedCount - 1] ++;
+      }
+      else extraWrong ++;         // no, only count wrong bytes
+      return;
+    }
+    thisEnd = offset + 1;         // start a new range with this byte
+    if (savedCount < EraseDisk3.RANGE_SAVED) // is there room to save it?
+    {
+      actuals[savedCount] = actual;
+      expects[savedCount] = expected;
+      lengths[savedCount] = 1;
+      starts[savedCount] = offset;
+      wrongs[savedCount] = 1;
+      savedCount ++;              // one more range saved
+      thisSaved = true;
+    }
+    else                          // no room, only count this range
+    {
+      extraCount ++;
+      extraWrong ++;
+      thisSaved = false;
+    }
+  }
+
+} // end of EraseDisk3Ranges class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  EraseDisk3User class
+
+  This class listens to input from the user and passes back event parameters to
+  a static method in the main class.
+*/
+
+class EraseDisk3User extends MouseAdapter implements ActionListener, Runnable
+{
+  /* empty constructor */
+
+  public EraseDisk3User() { }
+
+  /* button listener, dialog boxes, etc */
+
+  public void actionPerformed(ActionEvent event)
+  {
+    EraseDisk3.userButton(event);
+  }
+
+  /* mouse clicks on panels that aren't buttons */
+
+  public void mouseClicked(MouseEvent event)
+  {
+    EraseDisk3.userMouse(event);
+  }
+
+  /* separate heavy-duty processing thread */
+
+  public void run() { EraseDisk3.startErase(); }
+
+} // end of EraseDisk3User class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  EraseDisk3Verify class
+
+  This class reads one temporary file and compares the data with what was
+  written, for a read verify.  The run() method may be called directly by the
+  main "eraseThread", or may run as a separate thread when several files are
+  verified at the same time.  Separate threads save their messages until the
+  main thread calls putLines(), so that output appears in file order.  Results
+  are added to the pass totals by the main thread, after waitDone().  With the
+  "-p" option, only a random sample of blocks is read.
+*/
+
+class EraseDisk3Verify implements Runnable
+{
+  /* instance variables */
 
-    barGap = gap;                 // pixels between vertical bars in graph
-    if ((barGap < 0) || (barGap > 99)) barGap = GAP_DEFAULT;
-                                  // silently apply default if out of range
+  long blocksBad;                 // blocks read with at least one wrong byte
+  long blocksRead;                // blocks read and compared, maybe sampled
+  EraseDisk3Cipher cipher;        // AES/CTR key stream, or null if not used
+  boolean cipherFlag;             // true if pseudo-random data is AES/CTR
+  boolean compareFail;            // true if any compare fails for this file
+  long compareNanos;              // time comparing data
+  long correctBytes;              // number of correct bytes in this file
+  long cpuNanos;                  // CPU time if separate thread, or zero
+  byte[] dataBuffer;              // data bytes for comparing, maybe shared
+  boolean doneFlag;               // true when read verify is finished
+  long errorCount;                // number of errors detected in this file
+  long fileBytesDone;             // bytes read and compared so far
+  String fileName;                // name of temporary file, for messages
+  int fillByte;                   // 0x00 to 0xFF data, ignored if random
+  File fp;                        // File object for temporary file
+  long generateNanos;             // time generating data to compare
+  java.util.Vector lines;         // saved messages, or null if not saved
+  EraseDisk3Map map;              // good and bad regions for all files
+  long mapBase;                   // offset of this file in <map>
+  boolean openFail;               // true if file couldn't be opened
+  boolean randomFlag;             // true if using pseudo-random sequence
+  EraseDisk3Ranges ranges;        // ranges of wrong bytes, or null if none
+  long randomSeed;                // starting seed for this file
+  long readNanos;                 // time for read calls
+  int sizeLimit;                  // first and assumed maximum buffer size
+  long stopOffset;                // offset after too many errors, or -1
+  java.util.Vector verified;      // regions read and compared, in order, as
+                                  // ... long[] with starting and ending offset
 
-    barWidth = width;             // width of each vertical bar in pixels
-    if ((barWidth < 1) || (barWidth > 999)) barWidth = WIDTH_DEFAULT;
+  /* class constructor */
 
-    dataCount = dataStart = 0;    // no data values yet in history array
-    dataList = new double[DATA_SIZE]; // circular buffer with fixed size
-    maxFound = 123456789.0;       // initial value for maximum rate found
+  public EraseDisk3Verify(
+    File newFile,                 // temporary file to be read
+    String newName,               // name of file, for messages
+    boolean newRandom,            // true if using pseudo-random sequence
+    boolean newCipher,            // true if pseudo-random data is AES/CTR
+    int newFill,                  // 0x00 to 0xFF data, ignored if random
+    byte[] newData,               // data bytes from startEraser()
+    int newLimit,                 // first and assumed maximum buffer size
+    long newSeed,                 // starting seed for this file
+    boolean saveFlag)             // true if messages are saved for later
+  {
+    blocksBad = blocksRead = 0;   // no blocks read yet
+    cipher = null;                // created by run(), on the same thread
+    cipherFlag = newCipher;
+    compareFail = false;          // no comparison failures yet
+    compareNanos = cpuNanos = generateNanos = readNanos = 0; // no time yet
+    correctBytes = 0;             // no correct bytes yet
+    dataBuffer = newData;         // shared unless regenerated (slow)
+    doneFlag = false;             // read verify not finished
+    errorCount = 0;               // no errors yet
+    fileBytesDone = 0;            // no bytes read yet
+    fileName = newName;
+    fillByte = newFill;
+    fp = newFile;
+    lines = saveFlag ? new java.util.Vector() : null;
+    map = EraseDisk3.erasePanelMap; // shared by all files
+    mapBase = 0;                  // caller sets offset before we run
+    openFail = false;             // file not opened yet, not failed
+    randomFlag = newRandom;
+    randomSeed = newSeed;
+    ranges = null;                // created when first wrong byte is found
+    sizeLimit = newLimit;
+    stopOffset = -1;              // haven't stopped early
+    verified = new java.util.Vector(); // nothing read yet
   }
 
-  /* add new data rate to history */
+  /* add a region that was read and compared, joined to the previous region if
+  they touch (always, unless blocks are sampled) */
 
-  void addRate(double rate)
+  void addVerified(long start, long end)
+  {
+    long[] last;                  // previous region, if any
+
+    if (end <= start) return;     // nothing was compared
+    last = verified.isEmpty() ? null : (long[]) verified.lastElement();
+    if ((last != null) && (last[1] == start)) // does this continue previous?
+      last[1] = end;              // yes, make previous region longer
+    else
+      verified.add(new long[] { start, end }); // no, start a new region
+  }
+
+  /* append CSV lines for the verify map: good and bad ranges in order for each
+  region that was verified, with anything not verified (sampled, stopped early,
+  or cancelled) as unread */
+
+  void mapLines(StringBuffer buffer)
   {
-    if (dataCount < DATA_SIZE)    // if the circular buffer is not full
+    long fileSize = fp.length();  // zero if file doesn't exist
+    int next = 0;                 // index of next range of wrong bytes
+    long where = 0;               // offset after previous line
+
+    for (int i = 0; i < verified.size(); i ++)
     {
-      dataList[dataCount ++] = rate; // initial fill, starting from empty
+      long[] region = (long[]) verified.get(i);
+      if (region[0] > where)      // skipped some blocks before this region?
+        mapLine(buffer, where, region[0], "unread");
+      where = Math.max(where, region[0]);
+      while ((ranges != null) && (next < ranges.savedCount)
+        && (ranges.starts[next] < region[1]))
+      {
+        if (ranges.starts[next] > where) // correct bytes before this range?
+          mapLine(buffer, where, ranges.starts[next], "good");
+        where = ranges.starts[next] + ranges.lengths[next];
+        mapLine(buffer, ranges.starts[next], where, "bad");
+        next ++;                  // next range, if any
+      }
+      if (region[1] > where)      // anything verified after that?
+        mapLine(buffer, where, region[1], (((ranges != null)
+          && (next >= ranges.savedCount) && (ranges.extraCount > 0))
+          ? "mixed" : "good"));
+      where = Math.max(where, region[1]);
     }
-    else                          // buffer is full, re-use oldest entry
+    if (fileSize > where)         // sampled, stopped early, or cancelled?
+      mapLine(buffer, where, fileSize, "unread");
+  }
+
+  /* append one CSV line for the verify map, from <start> up to <end> */
+
+  void mapLine(StringBuffer buffer, long start, long end, String result)
+  {
+    buffer.append(fileName);
+    buffer.append(',');
+    buffer.append(start);         // first byte in this range
+    buffer.append(',');
+    buffer.append(end - 1);       // last byte in this range
+    buffer.append(',');
+    buffer.append(result);
+    buffer.append('\n');
+  }
+
+  /* put a message now, or save it for later */
+
+  void putLine(String text)
+  {
+    if (lines == null)            // are messages saved for later?
+      EraseDisk3.putOutput(text); // no, put message now
+    else synchronized (lines) { lines.add(text); } // yes, save message
+  }
+
+  /* put saved messages, if any, from the main thread */
+
+  void putLines()
+  {
+    if (lines == null) return;    // messages were not saved
+    synchronized (lines)
     {
-      dataList[dataStart] = rate; // starting index is the oldest data
-      dataStart = (dataStart + 1) % DATA_SIZE; // increment and wrap around
+      for (int i = 0; i < lines.size(); i ++)
+        EraseDisk3.putOutput((String) lines.get(i));
+      lines.clear();              // each message is put only once
     }
-    this.repaint();               // repaint sometime soon
   }
 
-  /* clear display panel and history */
+  /* put one line for each range of wrong bytes, up to a limit */
 
-  void clearHistory()
+  void putRanges()
   {
-    dataCount = dataStart = 0;    // ignore previous data in history array
-    this.repaint();               // repaint sometime soon
+    if (ranges == null) return;   // no wrong bytes in this file
+    for (int i = 0; i < ranges.savedCount; i ++)
+    {
+      if (ranges.lengths[i] == 1) // one byte, same as older versions
+        putLine(fileName + " - byte at "
+          + EraseDisk3.formatHexLong(ranges.starts[i]) + " is "
+          + EraseDisk3.formatHexByte(ranges.actuals[i]) + " but should be "
+          + EraseDisk3.formatHexByte(ranges.expects[i]));
+      else                        // more than one byte in this range
+        putLine(fileName + " - bytes at "
+          + EraseDisk3.formatHexLong(ranges.starts[i]) + " to "
+          + EraseDisk3.formatHexLong(ranges.starts[i] + ranges.lengths[i] - 1)
+          + " have " + EraseDisk3.formatComma.format(ranges.wrongs[i])
+          + " wrong, first is " + EraseDisk3.formatHexByte(ranges.actuals[i])
+          + " but should be " + EraseDisk3.formatHexByte(ranges.expects[i]));
+    }
+    if (ranges.extraCount > 0)    // were there more ranges than we saved?
+      putLine(fileName + " - " + EraseDisk3.prettyPlural(ranges.extraCount,
+        "more range") + " with " + EraseDisk3.formatComma.format(
+        ranges.extraWrong) + " wrong bytes");
   }
 
-  /* paint the display panel */
+  /* read verify one file, maybe as a separate thread */
 
-  protected void paintComponent(Graphics context)
+  public void run()
   {
-    int dataNext;                 // index of next data value in history
-    int i, k;                     // index variables
-    int panelColumns;             // number of columns (vertical bars)
-    int panelHeight;              // height of this panel in pixels
-    int panelOffset;              // left side of current column (pixels)
-    int panelWidth;               // width of this panel in pixels
-    double recentMax;             // maximum value seen on this call
-    double value;                 // one data value from rate history
-
-    super.paintComponent(context); // anything base JPanel wants first
+    long blockCount;              // number of blocks in file, last may be short
+    long blockErrors;             // error count before comparing this block
+    byte compareByte;             // one comparison value during read verify
+    long cpuStart;                // CPU time before this file, or -1
+    int dataIndex;                // current byte or block in data buffer
+    long fileBytesRead;           // bytes read from a file, or -1 for error
+    int i;                        // index variable
+    FileInputStream inp;          // byte input stream for reading one file
+    FileChannel inpChannel;       // channel for <inp>, interruptible reads
+    long nextBlock;               // next block after previous one read
+    boolean ownFlag;              // true if data buffer isn't shared
+    java.util.Random randomGen;   // fancy pseudo-random number generator
+    byte[] readBuffer;            // data bytes read from file during verify
+    ByteBuffer readWrapper;       // <readBuffer> or direct for channel reads
+    long recentCorrect, recentErrors; // recent good, bad verify bytes one file
+    java.util.Random sampleGen;   // chooses blocks for "-p" option, or null
+    long start;                   // clockNanos() before each step
+    long thisBlock;               // block number being read and compared
+    int thisSize;                 // number of bytes from each read
+    long where;                   // file offset for start of <readBuffer>
 
-    /* Calculate how many columns (vertical bars) will fit in the width of the
-    given panel.  The size of the panel may change each time we are called. */
+    /* The AES/CTR key stream, if used, can't be shared between threads, and is
+    created before opening the file (the only failure is not having AES/CTR,
+    which would have stopped writing). */
 
-    panelHeight = this.getHeight(); // height of this panel in pixels
-    panelWidth = this.getWidth(); // width of this panel in pixels
-    panelColumns = Math.max(1, ((panelWidth + barGap) / (barGap + barWidth)));
-                                  // number of vertical bars across panel
-    panelColumns = Math.min(dataCount, panelColumns); // limit available data
+    if (cipherFlag)               // is pseudo-random data the key stream?
+    {
+      try { cipher = new EraseDisk3Cipher(sizeLimit); }
+      catch (java.security.GeneralSecurityException gse)
+      {
+        putLine(EraseDisk3Cipher.CIPHER_NAME + " - " + gse.getMessage());
+        errorCount ++;            // one more error detected
+        openFail = true;          // caller stops verify after this file
+        setDone();                // nothing more to do here
+        return;
+      }
+      cipher.restart(randomSeed); // same key as when writing this file
+    }
 
-    /* Draw each column (vertical bar) and record the maximum value found.  You
-    may center or right align the bar graph, in the panel width, by calculating
-    an initial value for the <panelOffset> variable. */
+    /* Try to open a previously created temporary file. */
 
-    context.setColor(barColor);   // flood fill with our choice of color
-    dataNext = (dataStart + dataCount - panelColumns) % DATA_SIZE;
-                                  // index of first data value we want
-    panelOffset = 0;              // start drawing from left side of panel
-    recentMax = 1.0;              // as low as we can go and not be zero
-    for (i = 0; i < panelColumns; i ++) // for each column or vertical bar
+    try { inp = new FileInputStream(fp); } // we do our own buffering
+    catch (FileNotFoundException fnfe) // the only documented exception
     {
-      value = dataList[dataNext]; // get one data value from history
-      k = (int) ((value / maxFound) * panelHeight); // column height in pixels
-      k = Math.max(2, Math.min(k, panelHeight)); // minimum (base), maximum
-      context.fillRect(panelOffset, (panelHeight - k), barWidth, k);
+      putLine(fileName + " - can't read temporary file");
+      errorCount ++;              // one more error detected
+      openFail = true;            // caller stops verify after this file
+      setDone();                  // nothing more to do here
+      return;
+    }
+    if (EraseDisk3.debugFlag)     // does user want details?
+      putLine(fileName + " - reading temporary file");
+
+    /* Each file has its own random number generator and read buffer, so that
+    several files can be read at the same time.  The data buffer is shared,
+    unless we always generate new random numbers. */
+
+    compareByte = (byte) fillByte; // use same value except for random data
+    cpuStart = (lines != null) ? EraseDisk3.threadCpuNanos() : -1;
+                                  // main thread has its own CPU time
+    randomGen = new java.util.Random(randomSeed); // known seed for this file
+    ownFlag = randomFlag && ((cipher != null)
+      || (EraseDisk3.FAST_RANDOM == false)); // can't share data buffer?
+    if (ownFlag)                  // take our own from the pool
+      dataBuffer = EraseDisk3.bufferPool.takeBytes(sizeLimit);
+    readBuffer = EraseDisk3.bufferPool.takeBytes(sizeLimit); // maximum size
+    readWrapper = EraseDisk3.directReadFlag ? EraseDisk3.bufferPool
+      .takeDirect(sizeLimit) : ByteBuffer.wrap(readBuffer); // for channel
+    inpChannel = inp.getChannel(); // "Cancel" can interrupt channel reads
+
+    /* Keep reading from the file until end-of-file or an I/O error.  Blocks
+    are the same size as the biggest buffer when writing, and are read in
+    order, either all of them, or a random sample. */
+
+    blockCount = (fp.length() + sizeLimit - 1) / sizeLimit; // zero if no file
+    fileBytesRead = 0;            // bytes read from a file, or -1 for error
+    nextBlock = 0;                // start with the first block
+    recentCorrect = recentErrors = 0; // local number of good and bad bytes
+    sampleGen = (EraseDisk3.samplePercent > 0) ? new java.util.Random() : null;
+
+    while ((EraseDisk3.cancelFlag == false) && (fileBytesRead >= 0))
+                                  // inner <while> loop
+    {
+      if (EraseDisk3.pauseFlag)   // wait if user is busy
+      {
+        if (lines == null) EraseDisk3.doPauseCheck(); // main thread
+        else EraseDisk3.doPauseWait(); // worker thread
+      }
+
+      thisBlock = nextBlock;      // next block in order, unless sampled
+      if (sampleGen != null)      // choose each block with same probability
+      {
+        while ((thisBlock < blockCount)
+          && ((sampleGen.nextDouble() * 100.0) >= EraseDisk3.samplePercent))
+          thisBlock ++;           // skip this block, try the next one
+        if (thisBlock >= blockCount) // stop if no more blocks chosen
+          break;                  // exit early from inner <while> loop
+      }
+      where = thisBlock * sizeLimit; // file offset for start of block
+
+      start = EraseDisk3.clockNanos(); // time for read calls
+      try                         // try to fill buffer from file
+      {
+        readWrapper.clear();      // start again from beginning of buffer
+        while (readWrapper.hasRemaining() && (inpChannel.read(readWrapper,
+          (where + readWrapper.position())) > 0)) { /* until full or end */ }
+        thisSize = readWrapper.position(); // number of bytes read
+        readNanos += EraseDisk3.clockNanos() - start;
+      }
+      catch (IOException ioe)     // all errors are bad news when reading
+      {
+        putLine(fileName + " - " + ioe.getMessage());
+        fileBytesRead = -1;       // mark number of bytes read as invalid
+        errorCount ++;            // one more error detected
+        break;                    // exit early from inner <while> loop
+      }
+      if (thisSize <= 0)          // stop if we reached the end-of-file
+        break;                    // exit early from inner <while> loop
+
+      /* Compare data read with the correct data.  The read buffer is always
+      full, except for the last read at the end of the file, so that blocks of
+      pseudo-random data line up with what was written.  After skipping blocks,
+      the generator jumps (or replays) to where this block starts.  The AES/CTR
+      key stream starts anywhere without jumping. */
+
+      start = EraseDisk3.clockNanos(); // time for generating data
+      if (randomFlag && (cipher == null) && (thisBlock > nextBlock)
+        && (EraseDisk3.seekRandom(randomGen, randomSeed, thisBlock, sizeLimit)
+        == false))                // skipped blocks, and can't jump?
+      {
+        for ( ; nextBlock < thisBlock; nextBlock ++) // replay skipped blocks
+        {
+          if (EraseDisk3.FAST_RANDOM) randomGen.nextInt(sizeLimit);
+          else randomGen.nextBytes(dataBuffer);
+        }
+      }
+      blockErrors = errorCount;   // to find out if this block has errors
+
+      if (randomFlag == false)    // constant value for data bytes?
+      {
+        dataIndex = 0;            // constant data, compared from beginning
+      }
+      else if (cipher != null)    // AES/CTR key stream at this offset?
+      {
+        cipher.fillBlock(dataBuffer, sizeLimit, where);
+        dataIndex = 0;            // start from beginning of data buffer
+      }
+      else if (EraseDisk3.FAST_RANDOM) // do we re-use old random numbers?
+      {
+        dataIndex = randomGen.nextInt(sizeLimit);
+                                  // somewhat random starting index
+      }
+      else                        // always generate random numbers (slow)
+      {
+        randomGen.nextBytes(dataBuffer); // fill with new random bytes
+        dataIndex = 0;            // start from beginning of data buffer
+      }
+      generateNanos += EraseDisk3.clockNanos() - start;
+
+      /* Almost all blocks are correct, so first compare the whole block at
+      once with ByteBuffer.equals(), which newer versions of Java do with
+      vector (SIMD) instructions, many bytes at a time.  Counters are changed
+      as if each byte had been compared.  Only a block with wrong bytes is
+      compared again, one byte at a time, to find the wrong bytes.  With
+      Java 9.0 or later, a direct buffer for reading saves a copy inside the
+      channel, and is only copied to <readBuffer> when bytes are wrong. */
+
+      start = EraseDisk3.clockNanos(); // time for comparing data
+      i = 0;                      // start with first byte in block
+      readWrapper.flip();         // bytes read, from beginning of buffer
+      if (readWrapper.equals(ByteBuffer.wrap(dataBuffer, dataIndex, thisSize)))
+      {                           // is whole block correct?
+        correctBytes += thisSize; // increase total number of correct bytes
+        recentCorrect += thisSize; // more consecutively correct bytes
+        if (recentCorrect >= EraseDisk3.ERROR_RESET) // forgive an error?
+        {
+          recentErrors = Math.max(0, (recentErrors - (recentCorrect
+            / EraseDisk3.ERROR_RESET))); // one error for each ERROR_RESET
+          recentCorrect %= EraseDisk3.ERROR_RESET; // leftover correct bytes
+        }
+        i = thisSize;             // skip byte-by-byte comparison below
+      }
+      else if (readWrapper.isDirect()) // wrong bytes not in <readBuffer> yet?
+        readWrapper.get(readBuffer, 0, thisSize);
+      for ( ; i < thisSize; i ++) // for all input bytes, if any wrong
+      {
+        /* Read verify time for blocks with errors is spent inside this one
+        <for> statement, so keep it as simple as possible for correct data. */
+
+        if (randomFlag)           // are we reading a pseudo-random sequence?
+          compareByte = dataBuffer[dataIndex ++]; // get random byte
 
-      dataNext = (dataNext + 1) % DATA_SIZE; // index of next data value
-      panelOffset += (barGap + barWidth); // left side of next column
-      recentMax = Math.max(recentMax, value); // maximum data value found
+        if (readBuffer[i] == compareByte) // compare read with expected
+        {
+          correctBytes ++;        // increase total number of correct bytes
+          recentCorrect ++;       // one more consecutively correct byte
+          if (recentCorrect >= EraseDisk3.ERROR_RESET) // forgive an error?
+          {
+            recentCorrect = 0;    // clear local counter for number correct
+            if (recentErrors > 0) // are there any recent errors?
+              recentErrors --;    // yes, reduce local error count by one
+          }
+        }
+        else                      // what we read is not what we wanted
+        {
+          if (ranges == null)     // first wrong byte in this file?
+            ranges = new EraseDisk3Ranges(); // yes, start collecting
+          ranges.addByte((where + i), compareByte, readBuffer[i]);
+                                  // reported later, not formatted now
+          if (map != null)        // mark this part of the map as bad
+            map.markBad(mapBase + where + i);
+          compareFail = true;     // comparison has failed for this file
+          recentCorrect = 0;      // clear counter for local number correct
+          recentErrors ++;        // increase local error count by one
+          errorCount ++;          // one more error detected
+          if ((recentErrors >= EraseDisk3.ERROR_LIMIT) // too many errors?
+            && (EraseDisk3.errorScanFlag == false))
+          {
+            stopOffset = where + i + 1; // reported after ranges
+            fileBytesRead = -1;   // mark number of bytes read as invalid
+            break;                // exit early from <for> loop
+          }
+        }
+      }
+      compareNanos += EraseDisk3.clockNanos() - start;
+      blocksRead ++;              // one more block compared, maybe partly
+      if (errorCount > blockErrors) // any wrong bytes in this block?
+        blocksBad ++;
+      addVerified(where, ((stopOffset >= 0) ? stopOffset : (where + thisSize)));
+      if (fileBytesRead < 0)      // did something go wrong with comparison?
+        break;                    // exit early from inner <while> loop
+      if (map != null)            // mark this part of the map as verified
+        map.markGood((mapBase + where), thisSize);
+      fileBytesRead += thisSize;  // comparison done, add to local total
+      fileBytesDone = where + thisSize; // position reached in this file
+      EraseDisk3.addVerifyBytes(fileName, fileBytesDone, thisSize);
+                                  // add to bytes done for this pass
+      nextBlock = thisBlock + 1;  // random generator is ready for this block
     }
+    try { inp.close(); } catch (IOException ioe) { /* ignore errors */ }
+    if (ownFlag)                  // give back buffers for the next file
+      EraseDisk3.bufferPool.giveBytes(dataBuffer);
+    EraseDisk3.bufferPool.giveBytes(readBuffer);
+    EraseDisk3.bufferPool.giveDirect(readWrapper); // ignored if not direct
+    putRanges();                  // report wrong bytes, if any
+    if (stopOffset >= 0)          // did we stop after too many errors?
+      putLine(fileName + " - too many errors, stopping after "
+        + EraseDisk3.formatComma.format(stopOffset) + " bytes");
+
+    if ((EraseDisk3.cancelFlag == false) && (fileBytesRead >= 0)
+      && (compareFail == false))
+    {
+      putLine(fileName + " - "
+        + EraseDisk3.formatComma.format(fileBytesRead) + " bytes correct"
+        + ((sampleGen != null) ? (" in " + EraseDisk3.prettyPlural(blocksRead,
+        "sampled block")) : ""));
+    }
+    if (cpuStart >= 0)            // CPU time for this thread?
+      cpuNanos = EraseDisk3.threadCpuNanos() - cpuStart;
+    setDone();                    // tell main thread that we are finished
 
-    /* Maintain a cushion around the maximum, so that the display scale doesn't
-    change too often.  When setting a new value for <maxFound>, a multiplier of
-    1.00 causes the exact maximum to show in the GUI, while a larger multiplier
-    such as 1.02 provides a better cushion.  Users may quote a displayed number
-    as the maximum, so that really should be the maximum. */
+  } // end of run() method
 
-    if ((recentMax < (maxFound * 0.95)) || (recentMax > maxFound))
-      maxFound = Math.max(1.0, (recentMax * 1.00));
+  /* mark read verify as finished */
 
-  } // end of paintComponent() method
+  synchronized void setDone()
+  {
+    doneFlag = true;              // read verify is finished
+    this.notifyAll();             // wake up main thread if waiting
+  }
 
-} // end of EraseDisk3Grid class
+  /* wait up to a given number of milliseconds; return true if finished */
+
+  synchronized boolean waitDone(long millis)
+  {
+    if (doneFlag == false)        // don't wait if already finished
+      try { this.wait(millis); } catch (InterruptedException ie) { }
+    return(doneFlag);
+  }
+
+} // end of EraseDisk3Verify class
 
 // ------------------------------------------------------------------------- //
 
 /*
-  EraseDisk3User class
+  EraseDisk3Writer class
+
+  This class is a worker thread for queued writes.  It waits for one request
+  at a time: a block of data bytes and a position in a file channel, or a
+  request to force a file channel onto the disk (throttled writes).  The caller
+  must wait for each request to finish before starting another.  Java
+  1.4 has no thread pools or asynchronous file channels, so we do it ourselves
+  with wait() and notifyAll().
+*/
 
-  This class listens to input from the user and passes back event parameters to
-  a static method in the main class.
+class EraseDisk3Writer implements Runnable
+{
+  /* instance variables */
+
+  ByteBuffer buffer;              // data bytes for current request, or null
+                                  // ... to force channel onto the disk
+  FileChannel channel;            // file for current request, null if idle
+  long cpuNanos;                  // CPU time for requests, until returned by
+                                  // ... takeCpuNanos()
+  IOException failReason;         // exception for last request, or null
+                                  // ... until returned by waitDone()
+  boolean finishFlag;             // true when worker thread should end
+  byte[] ownBuffer;               // data buffer owned by caller for this thread
+  long position;                  // position in file for current request
+
+  /* class constructor */
+
+  public EraseDisk3Writer()
+  {
+    buffer = null;                // no data bytes yet
+    channel = null;               // no current request
+    cpuNanos = 0;                 // no CPU time used yet
+    failReason = null;            // no exceptions yet
+    finishFlag = false;           // keep running until told otherwise
+    ownBuffer = null;             // caller allocates if needed
+    position = 0;
+  }
+
+  /* stop worker thread after current request, if any */
+
+  synchronized void finish()
+  {
+    finishFlag = true;            // ask worker thread to end
+    this.notifyAll();             // wake up if idle
+  }
+
+  /* separate thread waits for requests and writes data */
+
+  public void run()
+  {
+    ByteBuffer thisBuffer;        // local copy of current request
+    FileChannel thisChannel;
+    long thisCpu;                 // CPU time for this request, or -1
+    IOException thisReason;
+    long thisPosition;
+
+    while (true)                  // until asked to finish
+    {
+      synchronized (this)
+      {
+        while ((channel == null) && (finishFlag == false))
+          try { this.wait(); } catch (InterruptedException ie) { }
+        if (channel == null)      // finish with no request outstanding
+          return;
+        thisBuffer = buffer;
+        thisChannel = channel;
+        thisPosition = position;
+      }
+
+      thisCpu = EraseDisk3.threadCpuNanos(); // CPU time before request
+      thisReason = null;          // assume that write will be successful
+      try                         // channel may write less than requested
+      {
+        if (thisBuffer == null)   // force request, not a write request?
+          thisChannel.force(false); // file contents only, not metadata
+        else while (thisBuffer.hasRemaining())
+          thisPosition += thisChannel.write(thisBuffer, thisPosition);
+      }
+      catch (IOException ioe) { thisReason = ioe; } // disk may be full
+      if (thisCpu >= 0)           // is CPU time available?
+        thisCpu = EraseDisk3.threadCpuNanos() - thisCpu;
+
+      synchronized (this)
+      {
+        if (thisCpu > 0) cpuNanos += thisCpu; // CPU time for all requests
+        failReason = thisReason;  // caller checks after waitDone()
+        channel = null;           // this request is done
+        this.notifyAll();         // wake up caller if waiting
+      }
+    }
+  }
+
+  /* start a new force request, after the previous request is done */
+
+  synchronized void startForce(FileChannel newChannel)
+  {
+    buffer = null;                // no data bytes means force request
+    channel = newChannel;
+    failReason = null;
+    position = 0;
+    this.notifyAll();             // wake up worker thread
+  }
+
+  /* start a new write request, after the previous request is done */
+
+  synchronized void startWrite(FileChannel newChannel, byte[] data, int offset,
+    int length, long newPosition)
+  {
+    buffer = ByteBuffer.wrap(data, offset, length);
+    channel = newChannel;
+    failReason = null;
+    position = newPosition;
+    this.notifyAll();             // wake up worker thread
+  }
+
+  /* return CPU time used by requests since the last call, and start again
+  from zero */
+
+  synchronized long takeCpuNanos()
+  {
+    long result = cpuNanos;       // CPU time since the last call
+    cpuNanos = 0;
+    return(result);
+  }
+
+  /* wait for current request, if any, and return exception or null; each
+  exception is returned only once */
+
+  synchronized IOException waitDone()
+  {
+    while (channel != null)       // while request is outstanding
+      try { this.wait(); } catch (InterruptedException ie) { }
+    IOException result = failReason; // exception from last request, if any
+    failReason = null;            // don't report the same exception twice
+    return(result);
+  }
+
+} // end of EraseDisk3Writer class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  EraseDisk3Zones class
+
+  This class keeps a throughput profile for one whole phase (writing or read
+  verify): the data rate against the byte offset where the data went, drawn
+  as a curve below the bar graph.  A hard disk is fastest on the outer tracks
+  (low offsets) and slows toward the inner tracks, so a healthy drive gives a
+  smooth curve that falls from left to right.  A sudden dip marks a weak region
+  or a drive that is busy rewriting shingled (SMR) tracks.
+
+  Bytes and time are added into a fixed number of zones, no matter how big the
+  disk is.  Zones start with a width from the estimated size of the phase.  If
+  more data arrives than expected, pairs of zones are merged and the width is
+  doubled.  The GUI timer adds bytes and calls repaint(); the "-z" option also
+  saves each profile as comma-separated values (CSV).
 */
 
-class EraseDisk3User implements ActionListener, Runnable
+class EraseDisk3Zones extends JPanel
 {
-  /* empty constructor */
+  /* constants */
 
-  public EraseDisk3User() { }
+  static final int ZONE_COUNT = 256; // maximum number of zones, power of two
+  static final long ZONE_MINIMUM = 0x100000; // smallest zone width in bytes
+  static final long serialVersionUID = 0;
+                                  // not used, just to keep compiler happy
 
-  /* button listener, dialog boxes, etc */
+  /* instance variables */
 
-  public void actionPerformed(ActionEvent event)
+  String action;                  // "read" or "write", or null if none yet
+  boolean activeFlag;             // true while bytes are being added
+  long lastMillis;                // elapsed phase time at last update
+  Color lineColor;                // use same color from Java look-and-feel
+  int phaseNumber;                // phases profiled so far in this job
+  long totalBytes;                // bytes added in this phase
+  long[] zoneBytes;               // bytes added to each zone
+  double[] zoneMillis;            // time spent on each zone in milliseconds
+  int zoneUsed;                   // number of zones with some data
+  long zoneWidth;                 // bytes in each zone, power of two
+
+  /* class constructor */
+
+  public EraseDisk3Zones()
   {
-    EraseDisk3.userButton(event);
+    super();                      // initialize our superclass first (JPanel)
+
+    lineColor = UIManager.getColor("ProgressBar.foreground");
+                                  // same color as bar graph
+    if (lineColor == null) lineColor = Color.GRAY;
+
+    action = null;                // no phase being profiled yet
+    phaseNumber = 0;
+    zoneBytes = new long[ZONE_COUNT];
+    zoneMillis = new double[ZONE_COUNT];
+    clearZones(null, 0);          // empty profile
   }
 
-  /* separate heavy-duty processing thread */
+  /* clear profile for a new phase, with the expected size in bytes */
 
-  public void run() { EraseDisk3.startErase(); }
+  synchronized void clearZones(String newAction, long expected)
+  {
+    for (int i = 0; i < ZONE_COUNT; i ++)
+    {
+      zoneBytes[i] = 0;
+      zoneMillis[i] = 0.0;
+    }
+    action = newAction;           // null means no phase yet
+    activeFlag = (newAction != null);
+    if (newAction == null)        // start of a new job?
+      phaseNumber = 0;
+    else
+      phaseNumber ++;             // one more phase in this job
+    lastMillis = 0;               // caller has just started the pass clock
+    totalBytes = 0;
+    zoneUsed = 0;
+    zoneWidth = ZONE_MINIMUM;     // grow to cover expected size, if known
+    while ((zoneWidth * ZONE_COUNT) < expected)
+      zoneWidth *= 2;
+    this.repaint();               // repaint sometime soon
+  }
 
-} // end of EraseDisk3User class
+  /* append CSV lines for this phase: phase, action, start, end, rate */
+
+  synchronized void csvLines(StringBuffer buffer)
+  {
+    for (int i = 0; i < zoneUsed; i ++)
+    {
+      buffer.append(phaseNumber);
+      buffer.append(',');
+      buffer.append(action);
+      buffer.append(',');
+      buffer.append(i * zoneWidth);
+      buffer.append(',');
+      buffer.append(Math.min(((i + 1) * zoneWidth), totalBytes) - 1);
+      buffer.append(',');
+      buffer.append(Math.round(zoneRate(i)));
+      buffer.append('\n');
+    }
+  }
+
+  /* merge pairs of zones, so the same number covers twice as many bytes */
+
+  void mergeZones()
+  {
+    for (int i = 0; i < (ZONE_COUNT / 2); i ++)
+    {
+      zoneBytes[i] = zoneBytes[i * 2] + zoneBytes[i * 2 + 1];
+      zoneMillis[i] = zoneMillis[i * 2] + zoneMillis[i * 2 + 1];
+    }
+    for (int i = (ZONE_COUNT / 2); i < ZONE_COUNT; i ++)
+    {
+      zoneBytes[i] = 0;
+      zoneMillis[i] = 0.0;
+    }
+    zoneUsed = (zoneUsed + 1) / 2;
+    zoneWidth *= 2;
+  }
+
+  /* paint the display panel */
+
+  protected void paintComponent(Graphics context)
+  {
+    int i;                        // index variable
+    double maxRate;               // highest zone rate, top of panel
+    int panelHeight;              // height of this panel in pixels
+    int panelWidth;               // width of this panel in pixels
+    int used;                     // zones to draw, local copy
+    int[] xList, yList;           // points on the curve
+
+    super.paintComponent(context); // anything base JPanel wants first
+
+    /* Each zone is one point, spread across the panel width as a fraction of
+    all zones, so the curve grows from left to right during a phase.  When the
+    panel is narrower than the number of zones, the line simply goes back and
+    forth within a pixel column, which is how we downsample. */
+
+    panelHeight = this.getHeight(); // height of this panel in pixels
+    panelWidth = this.getWidth(); // width of this panel in pixels
+    synchronized (this)           // timer may change zones while we draw
+    {
+      used = zoneUsed;
+      if (used < 2) return;       // need two points for a line
+      maxRate = 1.0;              // as low as we can go and not be zero
+      for (i = 0; i < used; i ++)
+        maxRate = Math.max(maxRate, zoneRate(i));
+      xList = new int[used];
+      yList = new int[used];
+      for (i = 0; i < used; i ++)
+      {
+        xList[i] = (int) (((long) i * (panelWidth - 1)) / (ZONE_COUNT - 1));
+        yList[i] = (panelHeight - 1) - (int) (zoneRate(i) / maxRate
+          * (panelHeight - 1));
+      }
+    }
+    context.setColor(lineColor);
+    context.drawPolyline(xList, yList, used);
+  }
+
+  /* stop adding bytes at the end of a phase, but keep drawing the curve */
+
+  synchronized void stopZones()
+  {
+    activeFlag = false;
+  }
+
+  /* update profile with total bytes and elapsed time for this phase */
+
+  synchronized void updateZones(long doneBytes, long doneMillis)
+  {
+    long bytes;                   // new bytes since last update
+    double millis;                // new time since last update
+    long part;                    // new bytes inside the current zone
+    double share;                 // time for new bytes inside current zone
+    int zone;                     // index of current zone
+
+    /* The elapsed time doesn't include pauses or prompts.  Time before the
+    first bytes is ignored, because that is spent opening or deleting files.
+    Later, an update with no new bytes is a stall, and its time goes to the
+    zone with the latest bytes (such as forcing the last file onto the
+    disk). */
+
+    bytes = doneBytes - totalBytes;
+    millis = doneMillis - lastMillis;
+    if ((activeFlag == false) || (bytes < 0) || (millis < 0.0))
+      return;                     // not our phase, or counters were reset
+    lastMillis = doneMillis;
+    if (doneBytes == 0)           // nothing done yet?
+      return;
+    if (bytes == 0)               // no new bytes, only time
+    {
+      zoneMillis[(int) ((totalBytes - 1) / zoneWidth)] += millis;
+      return;
+    }
+
+    /* Split bytes and time among the zones they cover.  We don't know when
+    each byte was done during the interval, so time is in proportion. */
+
+    do
+    {
+      while (totalBytes >= (zoneWidth * ZONE_COUNT)) // past the last zone?
+        mergeZones();
+      zone = (int) (totalBytes / zoneWidth);
+      part = Math.min(bytes, ((zone + 1) * zoneWidth - totalBytes));
+      share = (part < bytes) ? (millis * part / bytes) : millis;
+      zoneBytes[zone] += part;
+      zoneMillis[zone] += share;
+      zoneUsed = Math.max(zoneUsed, (zone + 1));
+      bytes -= part;
+      millis -= share;
+      totalBytes += part;
+    } while (bytes > 0);          // all remaining time goes to last zone
+  }
+
+  /* return bytes per second for one zone, or zero if no time */
+
+  double zoneRate(int zone)
+  {
+    return((zoneMillis[zone] > 0.0) ? (zoneBytes[zone] * 1000.0
+      / zoneMillis[zone]) : 0.0);
+  }
+
+} // end of EraseDisk3Zones class
 
 /* Copyright (c) 2022 by Keith Fenske.  Apache License or GNU GPL. */